@@ -1,6 +1,10 @@
 package de.thm.mni.compilerbau;
 
+import de.thm.mni.compilerbau.phases._06_codegen.PeepholeRule;
+
 import java.io.*;
+import java.util.Arrays;
+import java.util.EnumSet;
 
 import static java.lang.System.exit;
 
@@ -15,6 +19,26 @@ public class CommandLineOptions {
     public boolean firstClassBoolean = false;
     public boolean nestedScopesEnabled = false;
     public boolean leafProcedureOptimization = false;
+    public boolean constantFolding = false;
+    public boolean intermediateRepresentation = false;
+    public boolean registerAllocation = false;
+    public boolean boundsCheckElimination = false;
+    public boolean strengthReduction = false;
+    public boolean loopInvariantCodeMotion = false;
+    public boolean valueNumbering = false;
+    public boolean loopInversion = false;
+    public boolean immediateSelection = false;
+    public boolean addressFolding = false;
+    public boolean inlining = false;
+    public boolean tailCalls = false;
+    public boolean deadProcedureElimination = false;
+    public boolean arrayFlattening = false;
+    public boolean stackSlotSharing = false;
+    public boolean registerArguments = false;
+    public boolean framePointerOmission = false;
+    public boolean procedureSpecialization = false;
+    public boolean deadCodeElimination = false;
+    public EnumSet<PeepholeRule> peepholeRules = null;  // null if the peephole optimizer is disabled
     public String inFilename = "";
     public String outFilename = "";
 
@@ -42,6 +66,28 @@ public class CommandLineOptions {
         out.println("  --scopes     Enable the declaration of variables inside of compound statements.");
         out.println("  --ershov     Enable register optimization using the ershov number.");
         out.println("  --leafProc   Enables the optimization of leaf procedures.");
+        out.println("  --fold       Enable constant folding and algebraic simplification.");
+        out.println("  --ir         Generate code via the intermediate representation.");
+        out.println("  --regalloc   Enable global register allocation (implies --ir).");
+        out.println("  --bce        Remove array index checks proven to be in bounds (implies --regalloc).");
+        out.println("  --strength   Replace multiplications and divisions by constants with shifts (implies --ir).");
+        out.println("  --licm       Move loop-invariant computations in front of loops (implies --regalloc).");
+        out.println("  --lvn        Reuse values already computed in the same block (implies --regalloc).");
+        out.println("  --dce        Remove assignments and computations whose values are never used and branches with a known outcome (implies --regalloc).");
+        out.println("  --invert     Test the condition of while loops at the end of the body.");
+        out.println("  --isel       Use immediate operands and $0 for literals instead of loading them into registers.");
+        out.println("  --addressing Fold constant offsets of variables and fields into the displacement of loads and stores.");
+        out.println("  --inline     Inline small procedures and remove procedures which are never called.");
+        out.println("  --tailcall   Jump to procedures called last instead of calling them, recursion at the end becomes a loop.");
+        out.println("  --deadProcs  Remove procedures which are never called from main and export main only.");
+        out.println("  --flatten    Compute the address of nested array accesses at once, using shifts for powers of two.");
+        out.println("  --shareSlots Let local variables which are never live at the same time share their stack slots.");
+        out.println("  --regArgs    Pass the first four arguments of internal procedures in registers (implies --deadProcs).");
+        out.println("  --omitFP     Address the stack frame relative to the stack pointer. Internal procedures also use");
+        out.println("               $25 as a register (requires --deadProcs).");
+        out.println("  --specialize Propagate constant arguments into copies of procedures for hot calls (implies --fold).");
+        out.println("  --peephole   Enable the peephole optimizer with all rules, or with the given rules only:");
+        out.println("               --peephole=address,immediate,jump,label,move");
         out.println("  --help       Show this help.");
     }
 
@@ -88,11 +134,85 @@ public class CommandLineOptions {
                 case "--leafProc":
                     options.leafProcedureOptimization = true;
                     break;
+                case "--fold":
+                    options.constantFolding = true;
+                    break;
+                case "--ir":
+                    options.intermediateRepresentation = true;
+                    break;
+                case "--regalloc":
+                    options.intermediateRepresentation = true;
+                    options.registerAllocation = true;
+                    break;
+                case "--bce":
+                    options.intermediateRepresentation = true;
+                    options.registerAllocation = true;
+                    options.boundsCheckElimination = true;
+                    break;
+                case "--strength":
+                    options.intermediateRepresentation = true;
+                    options.strengthReduction = true;
+                    break;
+                case "--licm":
+                    options.intermediateRepresentation = true;
+                    options.registerAllocation = true;
+                    options.loopInvariantCodeMotion = true;
+                    break;
+                case "--lvn":
+                    options.intermediateRepresentation = true;
+                    options.registerAllocation = true;
+                    options.valueNumbering = true;
+                    break;
+                case "--dce":
+                    options.intermediateRepresentation = true;
+                    options.registerAllocation = true;
+                    options.deadCodeElimination = true;
+                    break;
+                case "--invert":
+                    options.loopInversion = true;
+                    break;
+                case "--isel":
+                    options.immediateSelection = true;
+                    break;
+                case "--addressing":
+                    options.addressFolding = true;
+                    break;
+                case "--inline":
+                    options.inlining = true;
+                    break;
+                case "--tailcall":
+                    options.tailCalls = true;
+                    break;
+                case "--deadProcs":
+                    options.deadProcedureElimination = true;
+                    break;
+                case "--flatten":
+                    options.arrayFlattening = true;
+                    break;
+                case "--shareSlots":
+                    options.stackSlotSharing = true;
+                    break;
+                case "--regArgs":
+                    options.deadProcedureElimination = true;
+                    options.registerArguments = true;
+                    break;
+                case "--omitFP":
+                    options.framePointerOmission = true;
+                    break;
+                case "--specialize":
+                    options.constantFolding = true;
+                    options.procedureSpecialization = true;
+                    break;
+                case "--peephole":
+                    options.peepholeRules = EnumSet.allOf(PeepholeRule.class);
+                    break;
                 case "--help":
                     showUsage(System.out);
                     exit(0);
                 default:
-                    if (!name.startsWith("--")) {
+                    if (name.startsWith("--peephole=")) {
+                        options.peepholeRules = parsePeepholeRules(name.substring("--peephole=".length()));
+                    } else if (!name.startsWith("--")) {
                         if (options.inFilename.isEmpty()) options.inFilename = name;
                         else if (options.outFilename.isEmpty()) options.outFilename = name;
                         else usageError("Too many positional arguments!");
@@ -107,6 +227,16 @@ public class CommandLineOptions {
         return options;
     }
 
+    private static EnumSet<PeepholeRule> parsePeepholeRules(String names) {
+        EnumSet<PeepholeRule> rules = EnumSet.noneOf(PeepholeRule.class);
+        for (String name : names.split(",")) {
+            PeepholeRule rule = Arrays.stream(PeepholeRule.values()).filter(r -> r.optionName.equals(name)).findFirst().orElse(null);
+            if (rule == null) usageError("Unknown peephole rule '%s'!", name);
+            rules.add(rule);
+        }
+        return rules;
+    }
+
     public PrintWriter getOutputWriter() throws IOException {
         // Unclosable stream to avoid closing stdout when no output file is given.
         // Source: https://stackoverflow.com/a/23791138
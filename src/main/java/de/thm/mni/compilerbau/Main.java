@@ -6,8 +6,17 @@ import de.thm.mni.compilerbau.phases._02_03_parser.Parser;
 import de.thm.mni.compilerbau.phases._02_03_parser.Sym;
 import de.thm.mni.compilerbau.phases._04a_tablebuild.TableBuilder;
 import de.thm.mni.compilerbau.phases._04b_semant.ProcedureBodyChecker;
+import de.thm.mni.compilerbau.phases._04c_optimize.CallGraph;
+import de.thm.mni.compilerbau.phases._04c_optimize.ConstantFolder;
+import de.thm.mni.compilerbau.phases._04c_optimize.Inliner;
+import de.thm.mni.compilerbau.phases._04c_optimize.Specializer;
+import de.thm.mni.compilerbau.phases._04c_optimize.TailCallFinder;
 import de.thm.mni.compilerbau.phases._05_varalloc.VarAllocator;
+import de.thm.mni.compilerbau.phases._05b_ir.IrBuilder;
+import de.thm.mni.compilerbau.phases._05b_ir.IrOptimizer;
+import de.thm.mni.compilerbau.phases._05b_ir.IrProgram;
 import de.thm.mni.compilerbau.phases._06_codegen.CodeGenerator;
+import de.thm.mni.compilerbau.phases._06_codegen.IrCodeGenerator;
 import de.thm.mni.compilerbau.table.Identifier;
 import de.thm.mni.compilerbau.utils.SplError;
 import java_cup.runtime.DefaultSymbolFactory;
@@ -89,11 +98,27 @@ class Main {
                 exit(0);
             }
 
+            if (options.deadProcedureElimination) {
+                CallGraph callGraph = new CallGraph(program, table);
+                callGraph.removeUnreachable(program);
+                callGraph.hideInternal(table);
+            }
+            if (options.procedureSpecialization) new Specializer(options).specialize(program, table);
+            if (options.inlining) new Inliner(options).inline(program, table);
+            if (options.constantFolding) new ConstantFolder(options).foldConstants(program);
+            if (options.tailCalls) new TailCallFinder(options).markTailCalls(program, table);
+
             new VarAllocator(options).allocVars(program, table);
             if (options.phaseOption == CommandLineOptions.PhaseOption.VARS) exit(0);
 
             try (PrintWriter out = options.getOutputWriter()) {
-                new CodeGenerator(options, out).generateCode(program, table);
+                if (options.intermediateRepresentation) {
+                    IrProgram ir = new IrBuilder(options).buildIr(program, table);
+                    new IrOptimizer(options).optimize(ir);
+                    new IrCodeGenerator(options, out).generateCode(ir);
+                } else {
+                    new CodeGenerator(options, out).generateCode(program, table);
+                }
             } catch (IOException e) {
                 System.err.printf("An error occurred: Cannot open output file '%s'\n", options.outFilename);
                 exit(1);
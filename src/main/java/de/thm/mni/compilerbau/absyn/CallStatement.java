@@ -16,6 +16,7 @@ import java.util.List;
 public non-sealed class CallStatement extends Statement {
     public final Identifier procedureName;
     public final List<Expression> arguments;
+    public boolean isTailCall = false; // Only relevant for --tailcall, has to be set in phase 4c
 
     /**
      * Creates a new node representing a procedure call.
@@ -12,6 +12,7 @@ import de.thm.mni.compilerbau.types.Type;
  */
 sealed public abstract class Expression extends Node permits BinaryExpression, IntLiteral, UnaryExpression, VariableExpression {
     public Type dataType = null;
+    public int ershovNumber = 0; // Only relevant for --ershov, has to be set in phase 5
 
     public Expression(Position position) {
         super(position);
@@ -10,6 +10,7 @@ import de.thm.mni.compilerbau.types.Type;
  */
 public abstract sealed class Variable extends Node permits ArrayAccess, NamedVariable, FieldAccess {
     public Type dataType = null;
+    public int ershovNumber = 0; // Only relevant for --ershov, has to be set in phase 5
 
     public Variable(Position position) {
         super(position);
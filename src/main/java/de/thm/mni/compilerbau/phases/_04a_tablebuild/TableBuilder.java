@@ -12,7 +12,9 @@ import de.thm.mni.compilerbau.utils.SplError;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.stream.Collectors;
 
 /**
  * This class is used to create and populate a {@link SymbolTable} containing entries for every symbol in the currently
@@ -115,8 +117,10 @@ public class TableBuilder extends DoNothingVisitor {
 
     @Override
     public void visit(RecordTypeExpression recordTypeExpression) {
+        Map<Identifier, Long> occurrences = recordTypeExpression.fields.stream()
+                .collect(Collectors.groupingBy(x -> x.name, Collectors.counting()));
         for (final VariableDeclaration var : recordTypeExpression.fields)
-            if (recordTypeExpression.fields.stream().filter(x -> x.name.equals(var.name)).count() != 1)
+            if (occurrences.get(var.name) != 1)
                 throw SplError.FieldAlreadyExists(var.position, var.name);
         recordTypeExpression.fields.forEach(x -> x.typeExpression.accept(this));
         recordTypeExpression.dataType = new RecordType(recordTypeExpression.fields);
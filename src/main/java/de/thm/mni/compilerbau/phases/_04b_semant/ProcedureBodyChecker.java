@@ -169,9 +169,9 @@ public class ProcedureBodyChecker extends DoNothingVisitor {
         if (!(fieldAccess.variable.dataType instanceof RecordType))
             throw SplError.NotARecord(fieldAccess.position, fieldAccess.field);
         RecordType type = (RecordType) fieldAccess.variable.dataType;
-        Optional<VariableDeclaration> field = type.fields.stream().filter(x -> x.name.equals(fieldAccess.field)).findFirst();
-        if (field.isEmpty())
+        RecordType.Field field = type.field(fieldAccess.field);
+        if (field == null)
             throw SplError.NotAField(fieldAccess.position, fieldAccess.field);
-        fieldAccess.dataType = field.get().typeExpression.dataType;
+        fieldAccess.dataType = field.type();
     }
 }
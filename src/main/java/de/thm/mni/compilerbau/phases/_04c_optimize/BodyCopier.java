@@ -0,0 +1,123 @@
+package de.thm.mni.compilerbau.phases._04c_optimize;
+
+import de.thm.mni.compilerbau.absyn.*;
+import de.thm.mni.compilerbau.absyn.visitor.DoNothingVisitor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class makes deep copies of the statements of procedure bodies.
+ * <p>
+ * A copy shares no node with its original, as later phases change nodes like the arguments of a call or whether it
+ * is a tail call. Every visit-method stores the copy of the visited node in the copied field. A subclass substitutes
+ * parts of the copy by overriding the visit-methods of the nodes it replaces and calls the method of this class for
+ * the nodes it keeps.
+ */
+abstract class BodyCopier extends DoNothingVisitor {
+    protected Node copied;
+
+    protected Statement copyStatement(Statement statement) {
+        statement.accept(this);
+        return (Statement) copied;
+    }
+
+    protected Expression copyExpression(Expression expression) {
+        expression.accept(this);
+        return (Expression) copied;
+    }
+
+    protected Variable copyVariable(Variable variable) {
+        variable.accept(this);
+        return (Variable) copied;
+    }
+
+    protected List<Expression> copyArguments(CallStatement callStatement) {
+        List<Expression> arguments = new ArrayList<>();
+        callStatement.arguments.forEach(x -> arguments.add(copyExpression(x)));
+        return arguments;
+    }
+
+    @Override
+    public void visit(CallStatement callStatement) {
+        copied = new CallStatement(callStatement.position, callStatement.procedureName, copyArguments(callStatement));
+    }
+
+    @Override
+    public void visit(AssignStatement assignStatement) {
+        copied = new AssignStatement(assignStatement.position, copyVariable(assignStatement.target), copyExpression(assignStatement.value));
+    }
+
+    @Override
+    public void visit(IfStatement ifStatement) {
+        copied = new IfStatement(ifStatement.position, copyExpression(ifStatement.condition),
+                copyStatement(ifStatement.thenPart), copyStatement(ifStatement.elsePart));
+    }
+
+    @Override
+    public void visit(WhileStatement whileStatement) {
+        copied = new WhileStatement(whileStatement.position, copyExpression(whileStatement.condition), copyStatement(whileStatement.body));
+    }
+
+    @Override
+    public void visit(CompoundStatement compoundStatement) {
+        List<Statement> statements = new ArrayList<>();
+        compoundStatement.statements.forEach(x -> statements.add(copyStatement(x)));
+        copied = new CompoundStatement(compoundStatement.position, statements);
+    }
+
+    @Override
+    public void visit(EmptyStatement emptyStatement) {
+        copied = emptyStatement;
+    }
+
+    @Override
+    public void visit(BinaryExpression binaryExpression) {
+        BinaryExpression copy = new BinaryExpression(binaryExpression.position, binaryExpression.operator,
+                copyExpression(binaryExpression.leftOperand), copyExpression(binaryExpression.rightOperand));
+        copy.dataType = binaryExpression.dataType;
+        copied = copy;
+    }
+
+    @Override
+    public void visit(UnaryExpression unaryExpression) {
+        UnaryExpression copy = new UnaryExpression(unaryExpression.position, unaryExpression.operator, copyExpression(unaryExpression.operand));
+        copy.dataType = unaryExpression.dataType;
+        copied = copy;
+    }
+
+    @Override
+    public void visit(IntLiteral intLiteral) {
+        IntLiteral copy = new IntLiteral(intLiteral.position, intLiteral.value);
+        copy.dataType = intLiteral.dataType;
+        copied = copy;
+    }
+
+    @Override
+    public void visit(VariableExpression variableExpression) {
+        VariableExpression copy = new VariableExpression(variableExpression.position, copyVariable(variableExpression.variable));
+        copy.dataType = variableExpression.dataType;
+        copied = copy;
+    }
+
+    @Override
+    public void visit(NamedVariable namedVariable) {
+        NamedVariable copy = new NamedVariable(namedVariable.position, namedVariable.name);
+        copy.dataType = namedVariable.dataType;
+        copied = copy;
+    }
+
+    @Override
+    public void visit(FieldAccess fieldAccess) {
+        FieldAccess copy = new FieldAccess(fieldAccess.position, copyVariable(fieldAccess.variable), fieldAccess.field);
+        copy.dataType = fieldAccess.dataType;
+        copied = copy;
+    }
+
+    @Override
+    public void visit(ArrayAccess arrayAccess) {
+        ArrayAccess copy = new ArrayAccess(arrayAccess.position, copyVariable(arrayAccess.array), copyExpression(arrayAccess.index));
+        copy.dataType = arrayAccess.dataType;
+        copied = copy;
+    }
+}
@@ -0,0 +1,220 @@
+package de.thm.mni.compilerbau.phases._04c_optimize;
+
+import de.thm.mni.compilerbau.absyn.*;
+import de.thm.mni.compilerbau.table.Identifier;
+import de.thm.mni.compilerbau.table.ProcedureEntry;
+import de.thm.mni.compilerbau.table.SymbolTable;
+
+import java.util.*;
+
+/**
+ * This class represents the call graph of the currently compiled SPL program.
+ * <p>
+ * The graph is built from the calls in the procedure bodies, whose targets are resolved through the
+ * {@link ProcedureEntry}s of the symbol table. Calls of predefined procedures are left out, as they do not call any
+ * procedure of the program. The procedures are grouped into their strongly connected components, which are found
+ * with the algorithm of Tarjan. A procedure is recursive, if it may call itself directly or through other procedures.
+ * <p>
+ * The graph reflects the procedure bodies at the time it is built, so it has to be built again after a pass changed
+ * the calls of the program.
+ */
+public class CallGraph {
+    public static final Identifier MAIN = new Identifier("main");
+
+    private final Map<Identifier, ProcedureDeclaration> procedures = new LinkedHashMap<>();
+    private final Map<Identifier, Set<Identifier>> callees = new HashMap<>();
+    private final Map<Identifier, Set<Identifier>> callers = new HashMap<>();
+    private final Map<Identifier, Integer> callSites = new HashMap<>();
+    private final List<Set<Identifier>> components = new ArrayList<>(); // callees before callers
+    private final Map<Identifier, Set<Identifier>> componentOf = new HashMap<>();
+
+    // the state of the search for the strongly connected components
+    private int index = 0;
+    private final Map<Identifier, Integer> indices = new HashMap<>();
+    private final Map<Identifier, Integer> lowLinks = new HashMap<>();
+    private final Deque<Identifier> stack = new ArrayDeque<>();
+
+    public CallGraph(Program program, SymbolTable table) {
+        program.declarations.stream().filter(x -> x instanceof ProcedureDeclaration).forEach(x -> {
+            procedures.put(x.name, (ProcedureDeclaration) x);
+            callees.put(x.name, new LinkedHashSet<>());
+            callers.put(x.name, new LinkedHashSet<>());
+        });
+        procedures.values().forEach(procedure -> calls(procedure.body, table).forEach(callee -> {
+            callees.get(procedure.name).add(callee);
+            callers.get(callee).add(procedure.name);
+            callSites.merge(callee, 1, Integer::sum);
+        }));
+        findComponents();
+    }
+
+    /**
+     * @return The declared procedures called in a list of statements, in the order of the calls.
+     */
+    public static List<Identifier> calls(List<Statement> statements, SymbolTable table) {
+        List<Identifier> calls = new ArrayList<>();
+        statements.forEach(x -> calls(x, table, calls));
+        return calls;
+    }
+
+    private static void calls(Statement statement, SymbolTable table, List<Identifier> calls) {
+        if (statement instanceof CallStatement call && table.lookup(call.procedureName) instanceof ProcedureEntry entry && entry.localTable != null)
+            calls.add(call.procedureName);
+        else if (statement instanceof IfStatement ifStatement) {
+            calls(ifStatement.thenPart, table, calls);
+            calls(ifStatement.elsePart, table, calls);
+        } else if (statement instanceof WhileStatement whileStatement)
+            calls(whileStatement.body, table, calls);
+        else if (statement instanceof CompoundStatement compoundStatement)
+            compoundStatement.statements.forEach(x -> calls(x, table, calls));
+    }
+
+    /**
+     * @return The declared procedures, in the order of their declarations.
+     */
+    public Set<Identifier> procedures() {
+        return procedures.keySet();
+    }
+
+    public ProcedureDeclaration declaration(Identifier procedure) {
+        return procedures.get(procedure);
+    }
+
+    /**
+     * @return The declared procedures called by the given procedure.
+     */
+    public Set<Identifier> callees(Identifier procedure) {
+        return callees.get(procedure);
+    }
+
+    /**
+     * @return The procedures calling the given procedure.
+     */
+    public Set<Identifier> callers(Identifier procedure) {
+        return callers.get(procedure);
+    }
+
+    /**
+     * @return The number of calls of the given procedure in the whole program.
+     */
+    public int callSites(Identifier procedure) {
+        return callSites.getOrDefault(procedure, 0);
+    }
+
+    /**
+     * @return The strongly connected components, every component comes after the components it calls.
+     */
+    public List<Set<Identifier>> components() {
+        return components;
+    }
+
+    public Set<Identifier> component(Identifier procedure) {
+        return componentOf.get(procedure);
+    }
+
+    /**
+     * @return true if the procedure may call itself, directly or through other procedures.
+     */
+    public boolean isRecursive(Identifier procedure) {
+        return component(procedure).size() > 1 || callees(procedure).contains(procedure);
+    }
+
+    /**
+     * @return All procedures ordered such that every procedure comes after the procedures it calls, except for calls
+     * within a cycle.
+     */
+    public List<Identifier> postorder() {
+        List<Identifier> order = new ArrayList<>();
+        components.forEach(order::addAll);
+        return order;
+    }
+
+    /**
+     * @return The procedures which may be called, while one of the given procedures is active, including themselves.
+     */
+    public Set<Identifier> reachable(Set<Identifier> from) {
+        Set<Identifier> reached = new HashSet<>();
+        Deque<Identifier> pending = new ArrayDeque<>(from);
+        while (!pending.isEmpty()) {
+            Identifier procedure = pending.pop();
+            if (procedures.containsKey(procedure) && reached.add(procedure)) pending.addAll(callees(procedure));
+        }
+        return reached;
+    }
+
+    /**
+     * @return The procedures which may be called during the execution of the program.
+     */
+    public Set<Identifier> reachable() {
+        return reachable(Set.of(MAIN));
+    }
+
+    /**
+     * @return The largest number of declared procedures which may be active at the same time, main included, or
+     * nothing, if a recursive procedure is called by the program.
+     */
+    public OptionalInt maxCallDepth() {
+        Set<Identifier> reachable = reachable();
+        if (reachable.stream().anyMatch(this::isRecursive)) return OptionalInt.empty();
+
+        Map<Identifier, Integer> depth = new HashMap<>();
+        for (Identifier procedure : postorder()) {
+            if (!reachable.contains(procedure)) continue;
+            depth.put(procedure, 1 + callees(procedure).stream().mapToInt(depth::get).max().orElse(0));
+        }
+        return OptionalInt.of(depth.get(MAIN));
+    }
+
+    /**
+     * Removes the declarations of all procedures, which are never called during the execution of the program.
+     *
+     * @return The names of the removed procedures.
+     */
+    public Set<Identifier> removeUnreachable(Program program) {
+        Set<Identifier> reachable = reachable();
+        Set<Identifier> removed = new LinkedHashSet<>(procedures.keySet());
+        removed.removeAll(reachable);
+        program.declarations.removeIf(x -> x instanceof ProcedureDeclaration && removed.contains(x.name));
+        return removed;
+    }
+
+    /**
+     * Marks all declared procedures except main as internal, so that they are no longer exported by the generated code.
+     */
+    public void hideInternal(SymbolTable table) {
+        procedures.keySet().stream().filter(x -> !x.equals(MAIN)).forEach(x -> ((ProcedureEntry) table.lookup(x)).isExported = false);
+    }
+
+    private void findComponents() {
+        procedures.keySet().forEach(x -> {
+            if (!indices.containsKey(x)) connect(x);
+        });
+    }
+
+    private void connect(Identifier procedure) {
+        indices.put(procedure, index);
+        lowLinks.put(procedure, index);
+        index++;
+        stack.push(procedure);
+
+        for (Identifier callee : callees(procedure)) {
+            if (!indices.containsKey(callee)) {
+                connect(callee);
+                lowLinks.put(procedure, Math.min(lowLinks.get(procedure), lowLinks.get(callee)));
+            } else if (stack.contains(callee)) {
+                lowLinks.put(procedure, Math.min(lowLinks.get(procedure), indices.get(callee)));
+            }
+        }
+
+        if (lowLinks.get(procedure).equals(indices.get(procedure))) {
+            Set<Identifier> component = new LinkedHashSet<>();
+            Identifier member;
+            do {
+                member = stack.pop();
+                component.add(member);
+                componentOf.put(member, component);
+            } while (!member.equals(procedure));
+            components.add(component);
+        }
+    }
+}
@@ -0,0 +1,299 @@
+package de.thm.mni.compilerbau.phases._04c_optimize;
+
+import de.thm.mni.compilerbau.CommandLineOptions;
+import de.thm.mni.compilerbau.absyn.*;
+import de.thm.mni.compilerbau.absyn.visitor.DoNothingVisitor;
+import de.thm.mni.compilerbau.types.PrimitiveType;
+
+import java.util.Optional;
+
+/**
+ * This class is used to fold constant expressions in the procedure bodies of the currently compiled SPL program.
+ * Arithmetic on {@link IntLiteral}s is evaluated at compile time, algebraic identities like x + 0, x * 1 and x * 0 are
+ * simplified and if- and while-statements with a constant condition are replaced by the part that is actually executed.
+ * <p>
+ * As the nodes of the abstract syntax tree are immutable, every visit-method stores the rewritten node in the folded
+ * field, which then replaces the visited node in its parent.
+ */
+public class ConstantFolder extends DoNothingVisitor {
+
+    private final CommandLineOptions options;
+    private Node folded;
+
+    public ConstantFolder(CommandLineOptions options) {
+        this.options = options;
+    }
+
+    public void foldConstants(Program program) {
+        // only visit the procedures
+        program.declarations.stream().filter(x -> x instanceof ProcedureDeclaration).forEach(x -> {
+            x.accept(this);
+        });
+    }
+
+    private Statement foldStatement(Statement statement) {
+        statement.accept(this);
+        return (Statement) folded;
+    }
+
+    private Expression foldExpression(Expression expression) {
+        expression.accept(this);
+        return (Expression) folded;
+    }
+
+    private Variable foldVariable(Variable variable) {
+        variable.accept(this);
+        return (Variable) folded;
+    }
+
+    private static Optional<Integer> literalValue(Expression expression) {
+        if (expression instanceof IntLiteral)
+            return Optional.of(((IntLiteral) expression).value);
+        return Optional.empty();
+    }
+
+    private static boolean isLiteral(Expression expression, int value) {
+        return literalValue(expression).map(x -> x == value).orElse(false);
+    }
+
+    /**
+     * Checks whether an expression can be dropped without changing the behaviour of the program.
+     * The only observable effects of an expression are the errors raised by an invalid array access or a division
+     * by zero.
+     */
+    private static boolean canBeDropped(Node node) {
+        if (node instanceof BinaryExpression) {
+            BinaryExpression binaryExpression = (BinaryExpression) node;
+            if (binaryExpression.operator == BinaryExpression.Operator.DIV && literalValue(binaryExpression.rightOperand).orElse(0) == 0)
+                return false;
+            return canBeDropped(binaryExpression.leftOperand) && canBeDropped(binaryExpression.rightOperand);
+        }
+        if (node instanceof UnaryExpression)
+            return canBeDropped(((UnaryExpression) node).operand);
+        if (node instanceof VariableExpression)
+            return canBeDropped(((VariableExpression) node).variable);
+        if (node instanceof FieldAccess)
+            return canBeDropped(((FieldAccess) node).variable);
+        return !(node instanceof ArrayAccess);
+    }
+
+    private static IntLiteral literal(Position position, int value) {
+        IntLiteral literal = new IntLiteral(position, value);
+        literal.dataType = PrimitiveType.intType;
+        return literal;
+    }
+
+    private static Expression negate(Position position, Expression operand) {
+        UnaryExpression negation = new UnaryExpression(position, UnaryExpression.Operator.MINUS, operand);
+        negation.dataType = PrimitiveType.intType;
+        return negation;
+    }
+
+    /**
+     * @param condition An already folded condition of an if- or while-statement.
+     * @return The outcome of the condition, if it compares two literals.
+     */
+    private static Optional<Boolean> conditionValue(Expression condition) {
+        if (!(condition instanceof BinaryExpression))
+            return Optional.empty();
+        BinaryExpression comparison = (BinaryExpression) condition;
+        Optional<Integer> left = literalValue(comparison.leftOperand), right = literalValue(comparison.rightOperand);
+        if (left.isEmpty() || right.isEmpty() || !comparison.operator.isComparison())
+            return Optional.empty();
+
+        int l = left.get(), r = right.get();
+        return Optional.of(switch (comparison.operator) {
+            case EQU -> l == r;
+            case NEQ -> l != r;
+            case LST -> l < r;
+            case LSE -> l <= r;
+            case GRT -> l > r;
+            case GRE -> l >= r;
+            default -> throw new IllegalStateException();
+        });
+    }
+
+    @Override
+    public void visit(ProcedureDeclaration procedureDeclaration) {
+        procedureDeclaration.body.replaceAll(this::foldStatement);
+    }
+
+    @Override
+    public void visit(CompoundStatement compoundStatement) {
+        compoundStatement.statements.replaceAll(this::foldStatement);
+        folded = compoundStatement;
+    }
+
+    @Override
+    public void visit(IfStatement ifStatement) {
+        Expression condition = foldExpression(ifStatement.condition);
+        Optional<Boolean> outcome = conditionValue(condition);
+        if (outcome.isPresent()) {
+            folded = foldStatement(outcome.get() ? ifStatement.thenPart : ifStatement.elsePart);
+            return;
+        }
+        Statement thenPart = foldStatement(ifStatement.thenPart);
+        Statement elsePart = foldStatement(ifStatement.elsePart);
+        folded = new IfStatement(ifStatement.position, condition, thenPart, elsePart);
+    }
+
+    @Override
+    public void visit(WhileStatement whileStatement) {
+        Expression condition = foldExpression(whileStatement.condition);
+        if (!conditionValue(condition).orElse(true)) {
+            folded = new EmptyStatement(whileStatement.position);
+            return;
+        }
+        folded = new WhileStatement(whileStatement.position, condition, foldStatement(whileStatement.body));
+    }
+
+    @Override
+    public void visit(EmptyStatement emptyStatement) {
+        folded = emptyStatement;
+    }
+
+    @Override
+    public void visit(CallStatement callStatement) {
+        callStatement.arguments.replaceAll(this::foldExpression);
+        folded = callStatement;
+    }
+
+    @Override
+    public void visit(AssignStatement assignStatement) {
+        Variable target = foldVariable(assignStatement.target);
+        folded = new AssignStatement(assignStatement.position, target, foldExpression(assignStatement.value));
+    }
+
+    @Override
+    public void visit(BinaryExpression binaryExpression) {
+        Position position = binaryExpression.position;
+        BinaryExpression.Operator operator = binaryExpression.operator;
+        Expression left = foldExpression(binaryExpression.leftOperand);
+        Expression right = foldExpression(binaryExpression.rightOperand);
+        Optional<Integer> leftValue = literalValue(left), rightValue = literalValue(right);
+
+        if (operator.isArithmetic() && leftValue.isPresent() && rightValue.isPresent()) {
+            int l = leftValue.get(), r = rightValue.get();
+            switch (operator) {
+                case ADD -> folded = literal(position, l + r);
+                case SUB -> folded = literal(position, l - r);
+                case MUL -> folded = literal(position, l * r);
+                // a division by zero is left to the runtime
+                case DIV -> folded = r == 0 ? rebuild(binaryExpression, left, right) : literal(position, l / r);
+            }
+            return;
+        }
+
+        // move literals to the right of commutative operators, so that they can be reassociated
+        if ((operator == BinaryExpression.Operator.ADD || operator == BinaryExpression.Operator.MUL) && leftValue.isPresent()) {
+            Expression swap = left;
+            left = right;
+            right = swap;
+            rightValue = leftValue;
+        }
+
+        switch (operator) {
+            case ADD:
+                if (isLiteral(right, 0)) {
+                    folded = left;
+                    return;
+                }
+                break;
+            case SUB:
+                if (isLiteral(right, 0)) {
+                    folded = left;
+                    return;
+                }
+                if (isLiteral(left, 0)) {
+                    folded = negate(position, right);
+                    return;
+                }
+                break;
+            case MUL:
+                if (isLiteral(right, 1)) {
+                    folded = left;
+                    return;
+                }
+                if (isLiteral(right, 0) && canBeDropped(left)) {
+                    folded = literal(position, 0);
+                    return;
+                }
+                if (isLiteral(right, -1)) {
+                    folded = negate(position, left);
+                    return;
+                }
+                break;
+            case DIV:
+                if (isLiteral(right, 1)) {
+                    folded = left;
+                    return;
+                }
+                break;
+        }
+
+        // (x + c1) + c2 = x + (c1 + c2) and (x * c1) * c2 = x * (c1 * c2)
+        if (rightValue.isPresent() && left instanceof BinaryExpression && ((BinaryExpression) left).operator == operator
+                && (operator == BinaryExpression.Operator.ADD || operator == BinaryExpression.Operator.MUL)) {
+            BinaryExpression inner = (BinaryExpression) left;
+            Optional<Integer> innerValue = literalValue(inner.rightOperand);
+            if (innerValue.isPresent()) {
+                int value = operator == BinaryExpression.Operator.ADD ? innerValue.get() + rightValue.get() : innerValue.get() * rightValue.get();
+                folded = new BinaryExpression(position, operator, inner.leftOperand, literal(position, value));
+                ((BinaryExpression) folded).dataType = binaryExpression.dataType;
+                folded = foldExpression((Expression) folded);
+                return;
+            }
+        }
+
+        folded = rebuild(binaryExpression, left, right);
+    }
+
+    private static BinaryExpression rebuild(BinaryExpression binaryExpression, Expression left, Expression right) {
+        BinaryExpression rebuilt = new BinaryExpression(binaryExpression.position, binaryExpression.operator, left, right);
+        rebuilt.dataType = binaryExpression.dataType;
+        return rebuilt;
+    }
+
+    @Override
+    public void visit(UnaryExpression unaryExpression) {
+        Expression operand = foldExpression(unaryExpression.operand);
+        if (operand instanceof IntLiteral)
+            folded = literal(unaryExpression.position, -((IntLiteral) operand).value);
+        else if (operand instanceof UnaryExpression)
+            folded = ((UnaryExpression) operand).operand;
+        else
+            folded = negate(unaryExpression.position, operand);
+    }
+
+    @Override
+    public void visit(IntLiteral intLiteral) {
+        folded = intLiteral;
+    }
+
+    @Override
+    public void visit(VariableExpression variableExpression) {
+        VariableExpression rebuilt = new VariableExpression(variableExpression.position, foldVariable(variableExpression.variable));
+        rebuilt.dataType = variableExpression.dataType;
+        folded = rebuilt;
+    }
+
+    @Override
+    public void visit(NamedVariable namedVariable) {
+        folded = namedVariable;
+    }
+
+    @Override
+    public void visit(FieldAccess fieldAccess) {
+        FieldAccess rebuilt = new FieldAccess(fieldAccess.position, foldVariable(fieldAccess.variable), fieldAccess.field);
+        rebuilt.dataType = fieldAccess.dataType;
+        folded = rebuilt;
+    }
+
+    @Override
+    public void visit(ArrayAccess arrayAccess) {
+        Variable array = foldVariable(arrayAccess.array);
+        ArrayAccess rebuilt = new ArrayAccess(arrayAccess.position, array, foldExpression(arrayAccess.index));
+        rebuilt.dataType = arrayAccess.dataType;
+        folded = rebuilt;
+    }
+}
@@ -0,0 +1,199 @@
+package de.thm.mni.compilerbau.phases._04c_optimize;
+
+import de.thm.mni.compilerbau.CommandLineOptions;
+import de.thm.mni.compilerbau.absyn.*;
+import de.thm.mni.compilerbau.table.Identifier;
+import de.thm.mni.compilerbau.table.ProcedureEntry;
+import de.thm.mni.compilerbau.table.SymbolTable;
+import de.thm.mni.compilerbau.table.VariableEntry;
+import de.thm.mni.compilerbau.types.ArrayType;
+import de.thm.mni.compilerbau.types.PrimitiveType;
+
+import java.util.*;
+
+/**
+ * This class replaces calls of small procedures by a copy of the body of the called procedure and removes the
+ * procedures, which are no longer called afterwards.
+ * <p>
+ * Procedures that are part of a cycle in the {@link CallGraph} of the program are never inlined. All other procedures
+ * are processed callees first, so that the body copied into a caller already contains the inlined callees of the
+ * copied procedure. A procedure is inlined, if the estimated number of instructions of its body does not exceed a
+ * limit, or if it is called only once from a procedure which is not recursive itself.
+ * <p>
+ * The parameters and local variables of the inlined procedure become local variables of the caller, whose names
+ * cannot be written in SPL and thus never collide with other names. A value parameter is assigned the value of its
+ * argument in front of the copied body. A reference parameter is replaced by the argument variable itself, which is
+ * only possible if the variable denotes the same memory location wherever it is used in the body. That is the case
+ * for named variables, fields of such variables and elements at constant indices within bounds, the call is kept for
+ * any other argument. Procedures with local arrays or records are not inlined, as the frame of the caller would have to
+ * hold them for its whole activation.
+ */
+public class Inliner extends BodyCopier {
+    private static final int COST_LIMIT = 40; // estimated instructions of a procedure which is always inlined
+    private static final int CALL_COST = 2;
+
+    private final CommandLineOptions options;
+    private SymbolTable table;
+    private CallGraph callGraph;
+
+    private ProcedureDeclaration caller;
+    private SymbolTable callerTable;
+    private boolean copying = false;
+    private Map<Identifier, Variable> references = Map.of();
+    private Map<Identifier, Identifier> renamed = Map.of();
+    private int inlinedCalls = 0;
+
+    public Inliner(CommandLineOptions options) {
+        this.options = options;
+    }
+
+    public void inline(Program program, SymbolTable table) {
+        this.table = table;
+        callGraph = new CallGraph(program, table);
+
+        for (Identifier name : callGraph.postorder()) {
+            caller = callGraph.declaration(name);
+            callerTable = ((ProcedureEntry) table.lookup(name)).localTable;
+            caller.body.replaceAll(this::copyStatement);
+        }
+
+        new CallGraph(program, table).removeUnreachable(program);
+    }
+
+    /**
+     * Estimates the number of instructions generated for a node.
+     */
+    static int cost(Node node) {
+        if (node instanceof AssignStatement assign)
+            return cost(assign.target) + cost(assign.value) + 1;
+        if (node instanceof CallStatement call)
+            return call.arguments.stream().mapToInt(x -> cost(x) + 1).sum() + CALL_COST;
+        if (node instanceof IfStatement ifStatement)
+            return cost(ifStatement.condition) + cost(ifStatement.thenPart) + cost(ifStatement.elsePart) + 2;
+        if (node instanceof WhileStatement whileStatement)
+            return cost(whileStatement.condition) + cost(whileStatement.body) + 2;
+        if (node instanceof CompoundStatement compoundStatement)
+            return compoundStatement.statements.stream().mapToInt(Inliner::cost).sum();
+        if (node instanceof BinaryExpression binary)
+            return cost(binary.leftOperand) + cost(binary.rightOperand) + 1;
+        if (node instanceof UnaryExpression unary)
+            return cost(unary.operand) + 1;
+        if (node instanceof VariableExpression variableExpression)
+            return cost(variableExpression.variable) + 1;
+        if (node instanceof FieldAccess fieldAccess)
+            return cost(fieldAccess.variable) + 1;
+        if (node instanceof ArrayAccess arrayAccess)
+            return cost(arrayAccess.array) + cost(arrayAccess.index) + 4;
+        if (node instanceof EmptyStatement)
+            return 0;
+        return 1;
+    }
+
+    /**
+     * Checks whether a variable denotes the same memory location each time it is evaluated and evaluating it can never
+     * raise an error.
+     */
+    private static boolean isStable(Variable variable) {
+        if (variable instanceof NamedVariable)
+            return true;
+        if (variable instanceof FieldAccess fieldAccess)
+            return isStable(fieldAccess.variable);
+        if (variable instanceof ArrayAccess arrayAccess)
+            return arrayAccess.index instanceof IntLiteral index && arrayAccess.array.dataType instanceof ArrayType type
+                    && index.value >= 0 && index.value < type.arraySize && isStable(arrayAccess.array);
+        return false;
+    }
+
+    private boolean canBeInlined(CallStatement call) {
+        ProcedureDeclaration callee = callGraph.declaration(call.procedureName);
+        if (callee == null || callee == caller || callGraph.isRecursive(callee.name)) return false;
+
+        boolean small = cost(new CompoundStatement(callee.position, callee.body)) <= COST_LIMIT;
+        boolean calledOnce = callGraph.callSites(callee.name) == 1 && !callGraph.isRecursive(caller.name);
+        if (!small && !calledOnce) return false;
+
+        ProcedureEntry entry = (ProcedureEntry) table.lookup(callee.name);
+        for (int i = 0; i < callee.parameters.size(); i++) {
+            if (entry.parameterTypes.get(i).isReference && !isStable(((VariableExpression) call.arguments.get(i)).variable))
+                return false;
+            if (!entry.parameterTypes.get(i).isReference && !(entry.parameterTypes.get(i).type instanceof PrimitiveType))
+                return false;
+        }
+
+        // the local variables stay allocated in the frame of the caller as long as the caller is active
+        if (callee.variables.stream()
+                .anyMatch(x -> !(((VariableEntry) entry.localTable.lookup(x.name)).type instanceof PrimitiveType)))
+            return false;
+
+        // the procedures called by the callee must not be hidden by a variable of the caller
+        return CallGraph.calls(callee.body, table).stream().allMatch(x -> callerTable.lookup(x) instanceof ProcedureEntry);
+    }
+
+    /**
+     * Replaces a call by its parameter assignments followed by a copy of the body of the called procedure.
+     */
+    private Statement expand(CallStatement call) {
+        ProcedureDeclaration callee = callGraph.declaration(call.procedureName);
+        SymbolTable calleeTable = ((ProcedureEntry) table.lookup(callee.name)).localTable;
+        int number = inlinedCalls++;
+
+        List<Statement> statements = new ArrayList<>();
+        Map<Identifier, Variable> references = new HashMap<>();
+        Map<Identifier, Identifier> renamed = new HashMap<>();
+        for (int i = 0; i < callee.parameters.size(); i++) {
+            ParameterDeclaration parameter = callee.parameters.get(i);
+            Expression argument = call.arguments.get(i);
+            if (parameter.isReference) {
+                references.put(parameter.name, ((VariableExpression) argument).variable);
+            } else {
+                Identifier local = declareLocal(callee, parameter.name, parameter.typeExpression, calleeTable, number);
+                renamed.put(parameter.name, local);
+                NamedVariable target = new NamedVariable(call.position, local);
+                target.dataType = argument.dataType;
+                statements.add(new AssignStatement(call.position, target, argument));
+            }
+        }
+        callee.variables.forEach(x -> renamed.put(x.name, declareLocal(callee, x.name, x.typeExpression, calleeTable, number)));
+
+        this.references = references;
+        this.renamed = renamed;
+        copying = true;
+        callee.body.forEach(x -> statements.add(copyStatement(x)));
+        copying = false;
+        this.references = Map.of();
+        this.renamed = Map.of();
+        return new CompoundStatement(call.position, statements);
+    }
+
+    private Identifier declareLocal(ProcedureDeclaration callee, Identifier name, TypeExpression typeExpression, SymbolTable calleeTable, int number) {
+        Identifier local = new Identifier(String.format("%s.%s.%d", callee.name, name, number));
+        caller.variables.add(new VariableDeclaration(callee.position, local, typeExpression));
+        callerTable.enter(local, new VariableEntry(((VariableEntry) calleeTable.lookup(name)).type, false));
+        return local;
+    }
+
+    @Override
+    public void visit(CallStatement callStatement) {
+        CallStatement copy = new CallStatement(callStatement.position, callStatement.procedureName, copyArguments(callStatement));
+        copied = !copying && canBeInlined(copy) ? expand(copy) : copy;
+    }
+
+    @Override
+    public void visit(NamedVariable namedVariable) {
+        Variable argument = references.get(namedVariable.name);
+        if (argument != null) {
+            // the argument is a variable of the caller and must not be renamed
+            Map<Identifier, Variable> references = this.references;
+            Map<Identifier, Identifier> renamed = this.renamed;
+            this.references = Map.of();
+            this.renamed = Map.of();
+            copied = copyVariable(argument);
+            this.references = references;
+            this.renamed = renamed;
+            return;
+        }
+        NamedVariable copy = new NamedVariable(namedVariable.position, renamed.getOrDefault(namedVariable.name, namedVariable.name));
+        copy.dataType = namedVariable.dataType;
+        copied = copy;
+    }
+}
@@ -0,0 +1,321 @@
+package de.thm.mni.compilerbau.phases._04c_optimize;
+
+import de.thm.mni.compilerbau.CommandLineOptions;
+import de.thm.mni.compilerbau.absyn.*;
+import de.thm.mni.compilerbau.table.*;
+import de.thm.mni.compilerbau.types.PrimitiveType;
+
+import java.util.*;
+
+/**
+ * This class propagates the constant arguments of calls into the called procedures by specializing the procedures for
+ * them.
+ * <p>
+ * A specialization is a copy of a procedure, in which some value parameters of type int are replaced by constants.
+ * Every use of such a parameter becomes a literal, which the {@link ConstantFolder} folds afterwards together with the
+ * conditions and array indices depending on it, as --specialize implies --fold. A parameter assigned in the body becomes a local variable initialized
+ * with the constant instead. The constant parameters are no longer passed, every call passing the same literals for
+ * them is redirected to the specialization. A recursive call within the copy, which passes such a parameter on
+ * unchanged, passes the literal and therefore calls the specialization again.
+ * <p>
+ * The procedures are processed callers first, so that the constants passed on by a specialization reach its callees.
+ * A procedure which is not exported can only be called by the program. If all calls from other procedures pass the
+ * same literal for a parameter and the procedure itself passes it on unchanged, all calls are redirected and the
+ * procedure is removed, which costs no code. Besides that, a procedure is specialized for the literals passed by its
+ * hot calls, which are calls in a loop, calls in a recursive procedure and calls of a recursive procedure, as long as
+ * the estimated size of all copies stays within a budget. Procedures calling each other in a cycle are left unchanged.
+ */
+public class Specializer extends BodyCopier {
+    private static final int SIZE_BUDGET = 120; // estimated instructions of all copies kept next to their procedure
+
+    /**
+     * A copy of a procedure, which has the given values for the parameters at the given indices.
+     */
+    private record Specialization(Identifier name, Map<Integer, Integer> constants) {
+    }
+
+    private record CallSite(Identifier caller, CallStatement call, boolean inLoop) {
+    }
+
+    private final CommandLineOptions options;
+    private Program program;
+    private SymbolTable table;
+
+    private final Map<Identifier, List<Specialization>> specializations = new HashMap<>();
+    private final Map<Identifier, Identifier> originals = new HashMap<>(); // the procedures the copies were made from
+    private final Set<Identifier> recursive = new HashSet<>();
+    private int budget = SIZE_BUDGET;
+    private int copies = 0;
+
+    private Map<Identifier, Integer> constants = Map.of();
+
+    public Specializer(CommandLineOptions options) {
+        this.options = options;
+    }
+
+    public void specialize(Program program, SymbolTable table) {
+        this.program = program;
+        this.table = table;
+        CallGraph callGraph = new CallGraph(program, table);
+        callGraph.procedures().stream().filter(callGraph::isRecursive).forEach(recursive::add);
+
+        List<Identifier> order = new ArrayList<>(callGraph.postorder());
+        Collections.reverse(order);
+        Set<Identifier> replaced = new HashSet<>();
+        for (Identifier name : order) {
+            if (callGraph.component(name).size() > 1) continue;
+
+            Identifier current = name;
+            if (!((ProcedureEntry) table.lookup(name)).isExported) {
+                Map<Integer, Integer> common = commonConstants(name);
+                if (!common.isEmpty()) {
+                    current = copy(name, common);
+                    replaced.add(name);
+                    redirectCalls();
+                }
+            }
+
+            int cost = Inliner.cost(new CompoundStatement(declaration(current).position, declaration(current).body));
+            for (Map<Integer, Integer> hot : hotConstants(current)) {
+                if (cost > budget) break;
+                budget -= cost;
+                copy(current, hot);
+            }
+            redirectCalls();
+        }
+
+        Set<Identifier> reachable = new CallGraph(program, table).reachable();
+        program.declarations.removeIf(x -> replaced.contains(x.name) && !reachable.contains(x.name));
+    }
+
+    private ProcedureDeclaration declaration(Identifier name) {
+        return (ProcedureDeclaration) program.declarations.stream().filter(x -> x.name.equals(name)).findFirst().orElseThrow();
+    }
+
+    /**
+     * @return true if the parameter at the given index may be replaced by a constant.
+     */
+    private static boolean isCandidate(ProcedureEntry entry, int index) {
+        ParameterType parameter = entry.parameterTypes.get(index);
+        return !parameter.isReference && parameter.type == PrimitiveType.intType;
+    }
+
+    /**
+     * @return The indices of the parameters, which keep their value for all activations of a recursive procedure,
+     * because the procedure passes them on unchanged whenever it calls itself.
+     */
+    private Set<Integer> invariantParameters(Identifier name) {
+        ProcedureDeclaration procedure = declaration(name);
+        List<CallSite> ownCalls = callSites(name).stream().filter(x -> x.caller.equals(name)).toList();
+        Set<Integer> invariant = new HashSet<>();
+        for (int i = 0; i < procedure.parameters.size(); i++) {
+            Identifier parameter = procedure.parameters.get(i).name;
+            int index = i;
+            if (ownCalls.isEmpty() || !isModified(procedure.body, parameter) && ownCalls.stream().allMatch(x ->
+                    x.call.arguments.get(index) instanceof VariableExpression argument
+                            && argument.variable instanceof NamedVariable variable && variable.name.equals(parameter)))
+                invariant.add(i);
+        }
+        return invariant;
+    }
+
+    /**
+     * @return The literals passed by a call for the invariant parameters of the called procedure.
+     */
+    private Map<Integer, Integer> literalArguments(CallSite site, Set<Integer> invariant) {
+        ProcedureEntry entry = (ProcedureEntry) table.lookup(site.call.procedureName);
+        Map<Integer, Integer> literals = new TreeMap<>();
+        for (int i = 0; i < site.call.arguments.size(); i++) {
+            if (isCandidate(entry, i) && invariant.contains(i) && site.call.arguments.get(i) instanceof IntLiteral literal)
+                literals.put(i, literal.value);
+        }
+        return literals;
+    }
+
+    /**
+     * @return The literals passed for a parameter by all calls from other procedures.
+     */
+    private Map<Integer, Integer> commonConstants(Identifier name) {
+        Set<Integer> invariant = invariantParameters(name);
+        List<CallSite> sites = callSites(name).stream().filter(x -> !x.caller.equals(name)).toList();
+        if (sites.isEmpty()) return Map.of();
+
+        Map<Integer, Integer> common = literalArguments(sites.get(0), invariant);
+        sites.forEach(x -> common.entrySet().retainAll(literalArguments(x, invariant).entrySet()));
+        return common;
+    }
+
+    /**
+     * @return The literals passed by the hot calls of a procedure, the ones passed by most calls first.
+     */
+    private List<Map<Integer, Integer>> hotConstants(Identifier name) {
+        Set<Integer> invariant = invariantParameters(name);
+        boolean calleeIsRecursive = recursive.contains(originals.getOrDefault(name, name));
+        Map<Map<Integer, Integer>, Integer> counts = new LinkedHashMap<>();
+        for (CallSite site : callSites(name)) {
+            if (site.caller.equals(name)) continue;
+            if (!site.inLoop && !calleeIsRecursive && !recursive.contains(originals.getOrDefault(site.caller, site.caller)))
+                continue;
+            Map<Integer, Integer> literals = literalArguments(site, invariant);
+            if (!literals.isEmpty()) counts.merge(literals, 1, Integer::sum);
+        }
+        List<Map<Integer, Integer>> hot = new ArrayList<>(counts.keySet());
+        hot.sort(Comparator.comparingInt((Map<Integer, Integer> x) -> -counts.get(x)));
+        return hot;
+    }
+
+    /**
+     * @return All calls of the given procedure in the program.
+     */
+    private List<CallSite> callSites(Identifier callee) {
+        List<CallSite> sites = new ArrayList<>();
+        program.declarations.stream().filter(x -> x instanceof ProcedureDeclaration)
+                .forEach(x -> ((ProcedureDeclaration) x).body.forEach(statement -> callSites(statement, callee, x.name, false, sites)));
+        return sites;
+    }
+
+    private static void callSites(Statement statement, Identifier callee, Identifier caller, boolean inLoop, List<CallSite> sites) {
+        if (statement instanceof CallStatement call && call.procedureName.equals(callee))
+            sites.add(new CallSite(caller, call, inLoop));
+        else if (statement instanceof IfStatement ifStatement) {
+            callSites(ifStatement.thenPart, callee, caller, inLoop, sites);
+            callSites(ifStatement.elsePart, callee, caller, inLoop, sites);
+        } else if (statement instanceof WhileStatement whileStatement)
+            callSites(whileStatement.body, callee, caller, true, sites);
+        else if (statement instanceof CompoundStatement compoundStatement)
+            compoundStatement.statements.forEach(x -> callSites(x, callee, caller, inLoop, sites));
+    }
+
+    /**
+     * @return true if a parameter is assigned or passed as a reference argument in a list of statements.
+     */
+    private boolean isModified(List<Statement> statements, Identifier parameter) {
+        return statements.stream().anyMatch(x -> isModified(x, parameter));
+    }
+
+    private boolean isModified(Statement statement, Identifier parameter) {
+        if (statement instanceof AssignStatement assign)
+            return assign.target instanceof NamedVariable target && target.name.equals(parameter);
+        if (statement instanceof CallStatement call) {
+            ProcedureEntry entry = (ProcedureEntry) table.lookup(call.procedureName);
+            for (int i = 0; i < call.arguments.size(); i++) {
+                if (entry.parameterTypes.get(i).isReference && call.arguments.get(i) instanceof VariableExpression argument
+                        && argument.variable instanceof NamedVariable variable && variable.name.equals(parameter))
+                    return true;
+            }
+            return false;
+        }
+        if (statement instanceof IfStatement ifStatement)
+            return isModified(ifStatement.thenPart, parameter) || isModified(ifStatement.elsePart, parameter);
+        if (statement instanceof WhileStatement whileStatement)
+            return isModified(whileStatement.body, parameter);
+        if (statement instanceof CompoundStatement compoundStatement)
+            return isModified(compoundStatement.statements, parameter);
+        return false;
+    }
+
+    private static IntLiteral literal(Position position, int value) {
+        IntLiteral literal = new IntLiteral(position, value);
+        literal.dataType = PrimitiveType.intType;
+        return literal;
+    }
+
+    /**
+     * Adds a copy of a procedure specialized for the given constants behind the procedure.
+     *
+     * @return The name of the copy.
+     */
+    private Identifier copy(Identifier name, Map<Integer, Integer> constants) {
+        ProcedureDeclaration procedure = declaration(name);
+        SymbolTable procedureTable = ((ProcedureEntry) table.lookup(name)).localTable;
+        Identifier original = originals.getOrDefault(name, name);
+        Identifier copyName = new Identifier(String.format("%s.%d", original, copies++));
+
+        SymbolTable localTable = new SymbolTable(table);
+        List<ParameterDeclaration> parameters = new ArrayList<>();
+        List<ParameterType> parameterTypes = new ArrayList<>();
+        List<VariableDeclaration> variables = new ArrayList<>();
+        List<Statement> body = new ArrayList<>();
+        Map<Identifier, Integer> substituted = new HashMap<>();
+        for (int i = 0; i < procedure.parameters.size(); i++) {
+            ParameterDeclaration parameter = procedure.parameters.get(i);
+            VariableEntry entry = (VariableEntry) procedureTable.lookup(parameter.name);
+            Integer value = constants.get(i);
+            if (value == null) {
+                parameters.add(parameter);
+                parameterTypes.add(new ParameterType(entry.type, entry.isReference));
+                localTable.enter(parameter.name, new VariableEntry(entry.type, entry.isReference));
+            } else if (isModified(procedure.body, parameter.name)) {
+                variables.add(new VariableDeclaration(parameter.position, parameter.name, parameter.typeExpression));
+                localTable.enter(parameter.name, new VariableEntry(entry.type, false));
+                NamedVariable target = new NamedVariable(parameter.position, parameter.name);
+                target.dataType = entry.type;
+                body.add(new AssignStatement(parameter.position, target, literal(parameter.position, value)));
+            } else {
+                substituted.put(parameter.name, value);
+            }
+        }
+        procedure.variables.forEach(x -> {
+            variables.add(x);
+            localTable.enter(x.name, new VariableEntry(((VariableEntry) procedureTable.lookup(x.name)).type, false));
+        });
+
+        ProcedureEntry copyEntry = new ProcedureEntry(localTable, parameterTypes);
+        copyEntry.isExported = false;
+        table.enter(copyName, copyEntry);
+        specializations.computeIfAbsent(name, x -> new ArrayList<>()).add(new Specialization(copyName, constants));
+        originals.put(copyName, original);
+
+        // the calls of the procedure itself in the copy already call the copy
+        this.constants = substituted;
+        procedure.body.forEach(x -> body.add(copyStatement(x)));
+        this.constants = Map.of();
+
+        program.declarations.add(program.declarations.indexOf(procedure) + 1,
+                new ProcedureDeclaration(procedure.position, copyName, parameters, variables, body));
+        return copyName;
+    }
+
+    /**
+     * Redirects all calls passing the constants of a specialization to the specialization.
+     */
+    private void redirectCalls() {
+        program.declarations.stream().filter(x -> x instanceof ProcedureDeclaration)
+                .forEach(x -> ((ProcedureDeclaration) x).body.replaceAll(this::copyStatement));
+    }
+
+    private static boolean passes(List<Expression> arguments, Specialization specialization) {
+        return specialization.constants.entrySet().stream().allMatch(x ->
+                arguments.get(x.getKey()) instanceof IntLiteral literal && literal.value == x.getValue());
+    }
+
+    @Override
+    public void visit(CallStatement callStatement) {
+        Identifier name = callStatement.procedureName;
+        List<Expression> arguments = copyArguments(callStatement);
+
+        // a call may be redirected again to a specialization of the specialization
+        while (true) {
+            List<Expression> passed = arguments;
+            Optional<Specialization> target = specializations.getOrDefault(name, List.of()).stream()
+                    .filter(x -> passes(passed, x)).max(Comparator.comparingInt(x -> x.constants.size()));
+            if (target.isEmpty()) break;
+
+            name = target.get().name;
+            List<Expression> remaining = new ArrayList<>();
+            for (int i = 0; i < passed.size(); i++)
+                if (!target.get().constants.containsKey(i)) remaining.add(passed.get(i));
+            arguments = remaining;
+        }
+        copied = new CallStatement(callStatement.position, name, arguments);
+    }
+
+    @Override
+    public void visit(VariableExpression variableExpression) {
+        if (variableExpression.variable instanceof NamedVariable variable && constants.containsKey(variable.name)) {
+            copied = literal(variableExpression.position, constants.get(variable.name));
+            return;
+        }
+        super.visit(variableExpression);
+    }
+}
@@ -0,0 +1,84 @@
+package de.thm.mni.compilerbau.phases._04c_optimize;
+
+import de.thm.mni.compilerbau.CommandLineOptions;
+import de.thm.mni.compilerbau.absyn.*;
+import de.thm.mni.compilerbau.phases._05_varalloc.VarAllocator;
+import de.thm.mni.compilerbau.table.ProcedureEntry;
+import de.thm.mni.compilerbau.table.SymbolTable;
+import de.thm.mni.compilerbau.table.VariableEntry;
+
+import java.util.List;
+
+/**
+ * This class marks the calls after which the calling procedure returns without doing anything else as tail calls.
+ * <p>
+ * A tail call needs no stack frame of its own. Its arguments are stored into the argument area of the calling
+ * procedure, where the called procedure finds them once the frame of the caller has been released, and the called
+ * procedure is jumped to. It returns directly to the caller of the caller. A procedure calling itself keeps its frame
+ * and jumps back to the start of its body instead, so that a recursion at the end of a procedure runs as a loop in
+ * constant stack space.
+ * <p>
+ * A call is only marked, if its arguments fit into the argument area of the caller and no reference argument points
+ * into the frame of the caller, which is released or reused by the call. Arguments passed in registers with --regArgs
+ * need no space in the argument area. Calls of predefined procedures are kept.
+ */
+public class TailCallFinder {
+    private final CommandLineOptions options;
+    private SymbolTable table;
+
+    public TailCallFinder(CommandLineOptions options) {
+        this.options = options;
+    }
+
+    public void markTailCalls(Program program, SymbolTable table) {
+        this.table = table;
+        program.declarations.stream().filter(x -> x instanceof ProcedureDeclaration)
+                .forEach(x -> markLast(((ProcedureDeclaration) x).body, (ProcedureEntry) table.lookup(x.name)));
+    }
+
+    /**
+     * Marks the tail calls among the last statement of a list, empty statements at the end are skipped.
+     */
+    private void markLast(List<Statement> statements, ProcedureEntry caller) {
+        for (int i = statements.size() - 1; i >= 0; i--) {
+            if (statements.get(i) instanceof EmptyStatement) continue;
+            mark(statements.get(i), caller);
+            return;
+        }
+    }
+
+    private void mark(Statement statement, ProcedureEntry caller) {
+        if (statement instanceof CallStatement call)
+            call.isTailCall = canJumpTo(call, caller);
+        else if (statement instanceof IfStatement ifStatement) {
+            mark(ifStatement.thenPart, caller);
+            mark(ifStatement.elsePart, caller);
+        } else if (statement instanceof CompoundStatement compoundStatement)
+            markLast(compoundStatement.statements, caller);
+    }
+
+    private boolean canJumpTo(CallStatement call, ProcedureEntry caller) {
+        ProcedureEntry callee = (ProcedureEntry) table.lookup(call.procedureName);
+        if (callee.localTable == null
+                || VarAllocator.stackArgumentSize(options, callee) > VarAllocator.stackArgumentSize(options, caller))
+            return false;
+
+        for (int i = 0; i < call.arguments.size(); i++)
+            if (callee.parameterTypes.get(i).isReference
+                    && pointsIntoFrame(((VariableExpression) call.arguments.get(i)).variable, caller.localTable))
+                return false;
+        return true;
+    }
+
+    /**
+     * @return true if the variable is located in the frame of the procedure, i.e. it is not reached through a
+     * reference parameter.
+     */
+    private static boolean pointsIntoFrame(Variable variable, SymbolTable localTable) {
+        if (variable instanceof FieldAccess fieldAccess)
+            return pointsIntoFrame(fieldAccess.variable, localTable);
+        if (variable instanceof ArrayAccess arrayAccess)
+            return pointsIntoFrame(arrayAccess.array, localTable);
+        return !((VariableEntry) localTable.lookup(((NamedVariable) variable).name)).isReference;
+    }
+}
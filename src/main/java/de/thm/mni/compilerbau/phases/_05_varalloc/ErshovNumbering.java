@@ -0,0 +1,190 @@
+package de.thm.mni.compilerbau.phases._05_varalloc;
+
+import de.thm.mni.compilerbau.absyn.*;
+import de.thm.mni.compilerbau.absyn.visitor.DoNothingVisitor;
+
+/**
+ * This class is used to calculate the ershov number of every {@link Expression} and {@link Variable} in a procedure body.
+ * The ershov number is the amount of registers needed to evaluate a subtree, if the subtree needing more registers is
+ * always evaluated first. It is stored in the ershovNumber field of the nodes and used by the code generator to choose
+ * the evaluation order.
+ * <p>
+ * Additionally, the number of frame slots needed to spill intermediate results is calculated, for expressions that
+ * need more than the {@link #AVAILABLE_REGISTERS} registers available for free use.
+ */
+public class ErshovNumbering extends DoNothingVisitor {
+    /**
+     * The number of registers available for free use ($8 - $23).
+     */
+    public static final int AVAILABLE_REGISTERS = 16;
+
+    private int spillSlots;
+
+    /**
+     * Calculates the ershov numbers for all expressions in the given statements.
+     *
+     * @param body The statements of a procedure body.
+     * @return The number of spill slots needed to evaluate the statements.
+     */
+    public int numberStatements(Iterable<Statement> body) {
+        int maxSpillSlots = 0;
+        for (Statement statement : body) {
+            spillSlots = 0;
+            statement.accept(this);
+            maxSpillSlots = Math.max(maxSpillSlots, spillSlots);
+        }
+        return maxSpillSlots;
+    }
+
+    /**
+     * Checks whether an array access should evaluate its index before its array.
+     * Evaluating the array first needs an additional register for the array size during the bounds check, so the
+     * index is evaluated first if this needs fewer registers.
+     *
+     * @param arrayAccess The array access with already numbered subtrees.
+     * @return true if the index should be evaluated first.
+     */
+    public static boolean isIndexFirst(ArrayAccess arrayAccess) {
+        int array = arrayAccess.array.ershovNumber, index = arrayAccess.index.ershovNumber;
+        return Math.max(index, Math.max(array + 1, 2)) < Math.max(array, Math.max(index + 1, 3));
+    }
+
+    /**
+     * Records the spill slots needed when a subtree is evaluated while the result of another subtree is kept.
+     * All registers but one are available for the second subtree, if it needs more it gets all registers and the first
+     * result is spilled to the frame meanwhile.
+     *
+     * @param firstSpillSlots The spill slots needed by the subtree evaluated first.
+     * @param second          The ershov number of the subtree evaluated second.
+     */
+    private void combineSpillSlots(int firstSpillSlots, int second) {
+        spillSlots = Math.max(firstSpillSlots, second > AVAILABLE_REGISTERS - 1 ? spillSlots + 1 : spillSlots);
+    }
+
+    private static int combine(int left, int right) {
+        return left == right ? left + 1 : Math.max(left, right);
+    }
+
+    @Override
+    public void visit(CompoundStatement compoundStatement) {
+        int maxSpillSlots = 0;
+        for (Statement statement : compoundStatement.statements) {
+            spillSlots = 0;
+            statement.accept(this);
+            maxSpillSlots = Math.max(maxSpillSlots, spillSlots);
+        }
+        spillSlots = maxSpillSlots;
+    }
+
+    @Override
+    public void visit(IfStatement ifStatement) {
+        ifStatement.condition.accept(this);
+        int maxSpillSlots = spillSlots;
+        ifStatement.thenPart.accept(this);
+        maxSpillSlots = Math.max(maxSpillSlots, spillSlots);
+        ifStatement.elsePart.accept(this);
+        spillSlots = Math.max(maxSpillSlots, spillSlots);
+    }
+
+    @Override
+    public void visit(WhileStatement whileStatement) {
+        whileStatement.condition.accept(this);
+        int maxSpillSlots = spillSlots;
+        whileStatement.body.accept(this);
+        spillSlots = Math.max(maxSpillSlots, spillSlots);
+    }
+
+    @Override
+    public void visit(EmptyStatement emptyStatement) {
+        spillSlots = 0;
+    }
+
+    @Override
+    public void visit(CallStatement callStatement) {
+        int maxSpillSlots = 0;
+        for (Expression argument : callStatement.arguments) {
+            spillSlots = 0;
+            argument.accept(this);
+            maxSpillSlots = Math.max(maxSpillSlots, spillSlots);
+        }
+        spillSlots = maxSpillSlots;
+    }
+
+    @Override
+    public void visit(AssignStatement assignStatement) {
+        assignStatement.target.accept(this);
+        int targetSpillSlots = spillSlots;
+        assignStatement.value.accept(this);
+        int target = assignStatement.target.ershovNumber, value = assignStatement.value.ershovNumber;
+        if (value > target) {
+            int valueSpillSlots = spillSlots;
+            spillSlots = targetSpillSlots;
+            combineSpillSlots(valueSpillSlots, target);
+        } else {
+            combineSpillSlots(targetSpillSlots, value);
+        }
+    }
+
+    @Override
+    public void visit(BinaryExpression binaryExpression) {
+        binaryExpression.leftOperand.accept(this);
+        int leftSpillSlots = spillSlots;
+        binaryExpression.rightOperand.accept(this);
+        int left = binaryExpression.leftOperand.ershovNumber, right = binaryExpression.rightOperand.ershovNumber;
+        if (right > left) {
+            int rightSpillSlots = spillSlots;
+            spillSlots = leftSpillSlots;
+            combineSpillSlots(rightSpillSlots, left);
+        } else {
+            combineSpillSlots(leftSpillSlots, right);
+        }
+        binaryExpression.ershovNumber = combine(left, right);
+    }
+
+    @Override
+    public void visit(UnaryExpression unaryExpression) {
+        unaryExpression.operand.accept(this);
+        unaryExpression.ershovNumber = unaryExpression.operand.ershovNumber;
+    }
+
+    @Override
+    public void visit(IntLiteral intLiteral) {
+        spillSlots = 0;
+        intLiteral.ershovNumber = 1;
+    }
+
+    @Override
+    public void visit(VariableExpression variableExpression) {
+        variableExpression.variable.accept(this);
+        variableExpression.ershovNumber = variableExpression.variable.ershovNumber;
+    }
+
+    @Override
+    public void visit(NamedVariable namedVariable) {
+        spillSlots = 0;
+        namedVariable.ershovNumber = 1;
+    }
+
+    @Override
+    public void visit(FieldAccess fieldAccess) {
+        fieldAccess.variable.accept(this);
+        fieldAccess.ershovNumber = fieldAccess.variable.ershovNumber;
+    }
+
+    @Override
+    public void visit(ArrayAccess arrayAccess) {
+        arrayAccess.array.accept(this);
+        int arraySpillSlots = spillSlots;
+        arrayAccess.index.accept(this);
+        int array = arrayAccess.array.ershovNumber, index = arrayAccess.index.ershovNumber;
+        if (isIndexFirst(arrayAccess)) {
+            int indexSpillSlots = spillSlots;
+            spillSlots = arraySpillSlots;
+            combineSpillSlots(indexSpillSlots, array);
+            arrayAccess.ershovNumber = Math.max(index, Math.max(array + 1, 2));
+        } else {
+            combineSpillSlots(arraySpillSlots, index);
+            arrayAccess.ershovNumber = Math.max(array, Math.max(index + 1, 3));
+        }
+    }
+}
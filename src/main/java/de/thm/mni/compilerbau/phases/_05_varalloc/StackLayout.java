@@ -12,15 +12,20 @@ public class StackLayout {
     public Integer localVarAreaSize = null;
     public Integer outgoingAreaSize = null;
     public boolean isOptimizedLeafProcedure = false;  // Only relevant for --leafProc
+    public boolean isFramePointerOmitted = false;  // Only relevant for --omitFP
+    public int spillAreaSize = 0;  // Only relevant for --ershov
 
     /**
      * @return The total size of the stack frame described by this object.
      */
     public int frameSize() {
-        if (outgoingAreaSize == -1) {
-            return localVarAreaSize + 4; // ohne RETURN-alt
+        if (isOptimizedLeafProcedure) {
+            return localVarAreaSize + spillAreaSize; // ohne FP-alt und RETURN-alt
         }
-        return localVarAreaSize + outgoingAreaSize + 8; // mit RETURN-alt
+        if (isFramePointerOmitted) {
+            return localVarAreaSize + spillAreaSize + outgoingAreaSize + 4; // ohne FP-alt
+        }
+        return localVarAreaSize + spillAreaSize + outgoingAreaSize + 8; // mit RETURN-alt
     }
 
     /**
@@ -34,6 +39,15 @@ public class StackLayout {
      * @return The offset (starting from the new frame pointer) where the old return address is stored in this stack frame.
      */
     public int oldReturnAddressOffset() {
-        return -(this.localVarAreaSize + 4 /*old FP*/ + 4 /*Old Return*/);
+        if (isFramePointerOmitted) return -(this.localVarAreaSize + this.spillAreaSize + 4 /*Old Return*/);
+        return -(this.localVarAreaSize + this.spillAreaSize + 4 /*old FP*/ + 4 /*Old Return*/);
+    }
+
+    /**
+     * @param slot The number of the spill slot, starting at 0.
+     * @return The offset (starting from the new frame pointer) where the given spill slot is located in this stack frame.
+     */
+    public int spillSlotOffset(int slot) {
+        return -(this.localVarAreaSize + 4 * (slot + 1));
     }
 }
@@ -0,0 +1,268 @@
+package de.thm.mni.compilerbau.phases._05_varalloc;
+
+import de.thm.mni.compilerbau.absyn.*;
+import de.thm.mni.compilerbau.table.Identifier;
+import de.thm.mni.compilerbau.table.ProcedureEntry;
+import de.thm.mni.compilerbau.table.SymbolTable;
+import de.thm.mni.compilerbau.table.VariableEntry;
+import de.thm.mni.compilerbau.types.PrimitiveType;
+
+import java.util.*;
+
+/**
+ * This class lets the local variables of a procedure share their frame slots, if they are never live at the same time.
+ * <p>
+ * The live variables are computed backwards over the statements of the procedure body, a while loop is analyzed
+ * again until the variables live at its condition no longer change. A variable is live, if its current value may
+ * still be read. Only an assignment to the whole variable ends its lifetime, an assignment to an element or a field
+ * and passing it as a reference argument keep the rest of the variable alive. A procedure jumping back to the start
+ * of its body by a tail call of itself continues with the variables live at the start of the body.
+ * <p>
+ * As arrays are never assigned as a whole, they would be live from the entry of the procedure on. Therefore, the
+ * variables which may have been written are computed forwards as well, a variable is written by an assignment to it
+ * or to one of its elements or fields and by passing it as a reference argument. A variable only occupies its slot,
+ * where it is both live and may have been written. A scalar variable which may be read before it is assigned is live
+ * at the start of the body and occupies its slot wherever it is live, so that it keeps its value just like in a slot
+ * of its own. This is not possible for arrays and records, which are live from the start on, as soon as a part of
+ * them is written. Reading an element or a field before it has been written may yield a value of another variable
+ * sharing the slot instead.
+ * <p>
+ * Two variables interfere, if they occupy their slots at the same point of the procedure, or if one of them is
+ * written while the other one occupies its slot afterwards. The variables are colored greedily, the largest ones
+ * first. Each one joins the first group that contains no variable it interferes with. All variables of a group start
+ * at the same offset in an area of the size of its largest variable.
+ */
+public class StackSlotColoring {
+    private final ProcedureDeclaration procedure;
+    private final SymbolTable localTable;
+    private final Map<Identifier, Integer> locals = new HashMap<>(); // the number of each local variable
+    private final List<BitSet> points = new ArrayList<>(); // the points at which each local variable is live
+    private int pointCount = 0;
+    private BitSet liveAtStart = new BitSet();
+    private final BitSet writtenAtStart = new BitSet();
+    private final BitSet scalars = new BitSet();
+    private final Map<Statement, BitSet> writtenBefore = new IdentityHashMap<>(); // variables which may have been written
+
+    public StackSlotColoring(ProcedureDeclaration procedure, SymbolTable localTable) {
+        this.procedure = procedure;
+        this.localTable = localTable;
+        procedure.variables.forEach(x -> {
+            if (((VariableEntry) localTable.lookup(x.name)).type instanceof PrimitiveType) scalars.set(locals.size());
+            locals.put(x.name, locals.size());
+            points.add(new BitSet());
+        });
+    }
+
+    /**
+     * Assigns the offsets of the local variables in their {@link VariableEntry}s.
+     *
+     * @param start The size of the part of the local variable area in front of the variables.
+     * @return The size of the local variable area.
+     */
+    public int allocate(int start) {
+        while (true) {
+            BitSet written = (BitSet) writtenAtStart.clone();
+            written(procedure.body, written);
+            if (written.equals(writtenAtStart)) break;
+        }
+        while (true) {
+            BitSet live = live(procedure.body, new BitSet());
+            if (live.equals(liveAtStart)) break;
+            liveAtStart = live;
+        }
+
+        List<VariableEntry> entries = procedure.variables.stream().map(x -> (VariableEntry) localTable.lookup(x.name)).toList();
+        List<Integer> order = new ArrayList<>(locals.values());
+        order.sort(Comparator.comparingInt((Integer x) -> -entries.get(x).type.byteSize).thenComparingInt(x -> x));
+
+        List<List<Integer>> groups = new ArrayList<>();
+        for (int variable : order) {
+            List<Integer> group = groups.stream()
+                    .filter(x -> x.stream().noneMatch(other -> points.get(other).intersects(points.get(variable))))
+                    .findFirst().orElse(null);
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.add(group);
+            }
+            group.add(variable);
+        }
+
+        // the groups are laid out in the order of the declarations, like variables with slots of their own
+        groups.sort(Comparator.comparingInt(x -> Collections.min(x)));
+        int areaSize = start;
+        for (List<Integer> group : groups) {
+            areaSize += group.stream().mapToInt(x -> entries.get(x).type.byteSize).max().orElse(0);
+            for (int variable : group)
+                entries.get(variable).offset = -areaSize;
+        }
+        return areaSize;
+    }
+
+    /**
+     * @return The variables live in front of a list of statements.
+     */
+    private BitSet live(List<Statement> statements, BitSet out) {
+        BitSet live = out;
+        for (int i = statements.size() - 1; i >= 0; i--)
+            live = live(statements.get(i), live);
+        return live;
+    }
+
+    /**
+     * @param out The variables live after the statement, which is left unchanged.
+     * @return The variables live in front of the statement.
+     */
+    private BitSet live(Statement statement, BitSet out) {
+        BitSet in = (BitSet) out.clone();
+        if (statement instanceof AssignStatement assign) {
+            // the written variable must not overwrite a variable still live afterwards
+            recordWrite(statement, out);
+            if (assign.target instanceof NamedVariable target && locals.containsKey(target.name))
+                in.clear(locals.get(target.name));
+            else
+                uses(assign.target, in);
+            uses(assign.value, in);
+        } else if (statement instanceof CallStatement call) {
+            recordWrite(statement, out);
+            if (call.isTailCall && call.procedureName.equals(procedure.name)) in.or(liveAtStart);
+            for (Expression argument : call.arguments)
+                uses(argument, in);
+        } else if (statement instanceof IfStatement ifStatement) {
+            in = live(ifStatement.thenPart, out);
+            in.or(live(ifStatement.elsePart, out));
+            uses(ifStatement.condition, in);
+        } else if (statement instanceof WhileStatement whileStatement) {
+            while (true) {
+                BitSet next = live(whileStatement.body, in);
+                next.or(out);
+                uses(whileStatement.condition, next);
+                if (next.equals(in)) break;
+                in = next;
+            }
+        } else if (statement instanceof CompoundStatement compoundStatement) {
+            in = (BitSet) live(compoundStatement.statements, out).clone();
+        }
+        record(occupying(in, writtenBefore.get(statement)));
+        return in;
+    }
+
+    /**
+     * Records the point after a statement, at which the variables it writes are written.
+     */
+    private void recordWrite(Statement statement, BitSet out) {
+        BitSet written = writes(statement);
+        BitSet after = (BitSet) out.clone();
+        after.or(written);
+        written.or(writtenBefore.get(statement));
+        record(occupying(after, written));
+    }
+
+    /**
+     * @return The variables occupying their slots at a point, given the variables live and possibly written there.
+     */
+    private BitSet occupying(BitSet live, BitSet written) {
+        BitSet occupying = (BitSet) liveAtStart.clone();
+        occupying.and(scalars);
+        occupying.or(written);
+        occupying.and(live);
+        return occupying;
+    }
+
+    /**
+     * @return The variables which may have been written after a list of statements.
+     */
+    private BitSet written(List<Statement> statements, BitSet in) {
+        BitSet written = in;
+        for (Statement statement : statements)
+            written = written(statement, written);
+        return written;
+    }
+
+    /**
+     * @param in The variables which may have been written in front of the statement, which is left unchanged.
+     * @return The variables which may have been written after the statement.
+     */
+    private BitSet written(Statement statement, BitSet in) {
+        writtenBefore.put(statement, in);
+        BitSet out = (BitSet) in.clone();
+        if (statement instanceof AssignStatement || statement instanceof CallStatement) {
+            out.or(writes(statement));
+            if (statement instanceof CallStatement call && call.isTailCall && call.procedureName.equals(procedure.name))
+                writtenAtStart.or(out);
+        } else if (statement instanceof IfStatement ifStatement) {
+            out = written(ifStatement.thenPart, in);
+            out.or(written(ifStatement.elsePart, in));
+        } else if (statement instanceof WhileStatement whileStatement) {
+            while (true) {
+                BitSet next = written(whileStatement.body, out);
+                next.or(in);
+                if (next.equals(out)) break;
+                out = next;
+            }
+            writtenBefore.put(statement, out);
+        } else if (statement instanceof CompoundStatement compoundStatement) {
+            out = (BitSet) written(compoundStatement.statements, in).clone();
+        }
+        return out;
+    }
+
+    /**
+     * @return The local variables written by an assignment or passed as reference arguments of a call.
+     */
+    private BitSet writes(Statement statement) {
+        BitSet written = new BitSet();
+        if (statement instanceof AssignStatement assign) {
+            Integer variable = root(assign.target);
+            if (variable != null) written.set(variable);
+        } else if (statement instanceof CallStatement call && localTable.lookup(call.procedureName) instanceof ProcedureEntry entry) {
+            for (int i = 0; i < call.arguments.size(); i++) {
+                if (!entry.parameterTypes.get(i).isReference) continue;
+                Integer variable = root(((VariableExpression) call.arguments.get(i)).variable);
+                if (variable != null) written.set(variable);
+            }
+        }
+        return written;
+    }
+
+    /**
+     * @return The number of the local variable containing the given variable, or null if it is no local variable.
+     */
+    private Integer root(Variable variable) {
+        if (variable instanceof NamedVariable namedVariable)
+            return locals.get(namedVariable.name);
+        if (variable instanceof FieldAccess fieldAccess)
+            return root(fieldAccess.variable);
+        if (variable instanceof ArrayAccess arrayAccess)
+            return root(arrayAccess.array);
+        return null;
+    }
+
+    private void uses(Expression expression, BitSet live) {
+        if (expression instanceof VariableExpression variableExpression)
+            uses(variableExpression.variable, live);
+        else if (expression instanceof BinaryExpression binary) {
+            uses(binary.leftOperand, live);
+            uses(binary.rightOperand, live);
+        } else if (expression instanceof UnaryExpression unary)
+            uses(unary.operand, live);
+    }
+
+    private void uses(Variable variable, BitSet live) {
+        if (variable instanceof NamedVariable namedVariable && locals.containsKey(namedVariable.name))
+            live.set(locals.get(namedVariable.name));
+        else if (variable instanceof FieldAccess fieldAccess)
+            uses(fieldAccess.variable, live);
+        else if (variable instanceof ArrayAccess arrayAccess) {
+            uses(arrayAccess.array, live);
+            uses(arrayAccess.index, live);
+        }
+    }
+
+    /**
+     * Records a new point of the procedure, at which the given variables are live at the same time.
+     */
+    private void record(BitSet live) {
+        int point = pointCount++;
+        live.stream().forEach(x -> points.get(x).set(point));
+    }
+}
@@ -19,10 +19,14 @@ import java.util.stream.Stream;
  */
 public class VarAllocator extends DoNothingVisitor {
     public static final int REFERENCE_BYTESIZE = 4;
+    public static final int FIRST_ARGUMENT_REGISTER = 4, ARGUMENT_REGISTERS = 4; // Only relevant for --regArgs
 
     private final CommandLineOptions options;
-    private int varOffset, maxCalleSize;
+    private int varOffset, homeOffset, maxCalleSize;
+    private boolean containsCall;
     private SymbolTable table;
+    private ProcedureEntry procedure;
+    private int parameterIndex;
 
     /**
      * @param options The options passed to the compiler
@@ -31,6 +35,34 @@ public class VarAllocator extends DoNothingVisitor {
         this.options = options;
     }
 
+    /**
+     * With --regArgs, the first arguments of a procedure which is not exported are passed in the registers $4 to $7.
+     * The called procedure stores them to slots of its own frame in front of its local variables, so that its caller
+     * only has to reserve space for the arguments passed on the stack. Predefined procedures always expect all of
+     * their arguments on the stack.
+     *
+     * @return The register the argument with the given index is passed in or 0, if it is passed on the stack.
+     */
+    public static int argumentRegister(CommandLineOptions options, ProcedureEntry procedure, int index) {
+        if (!options.registerArguments || procedure.isExported || procedure.localTable == null || index >= ARGUMENT_REGISTERS)
+            return 0;
+        return FIRST_ARGUMENT_REGISTER + index;
+    }
+
+    /**
+     * @return The size of the arguments passed to the procedure on the stack.
+     */
+    public static int stackArgumentSize(CommandLineOptions options, ProcedureEntry procedure) {
+        return IntStream.range(0, procedure.parameterTypes.size())
+                .filter(i -> argumentRegister(options, procedure, i) == 0)
+                .map(i -> size(procedure.parameterTypes.get(i)))
+                .sum();
+    }
+
+    private static int size(ParameterType parameter) {
+        return parameter.isReference ? REFERENCE_BYTESIZE : parameter.type.byteSize;
+    }
+
     public void allocVars(Program program, SymbolTable table) {
         this.table = table;
         program.accept(this);
@@ -53,23 +85,44 @@ public class VarAllocator extends DoNothingVisitor {
 
         // also set the offset of the parameter entry
         varOffset = 0;
-        proc.parameterTypes.forEach(x -> {
-            x.offset = varOffset;
-            varOffset += x.isReference ? REFERENCE_BYTESIZE : x.type.byteSize;
-        });
+        homeOffset = 0;
+        for (int i = 0; i < proc.parameterTypes.size(); i++) {
+            ParameterType x = proc.parameterTypes.get(i);
+            x.register = argumentRegister(options, proc, i);
+            if (x.register != 0) {
+                homeOffset += size(x);
+                x.offset = -homeOffset;
+            } else {
+                x.offset = varOffset;
+                varOffset += size(x);
+            }
+        }
         layout.argumentAreaSize = varOffset;
 
         varOffset = 0;
+        homeOffset = 0;
+        procedure = proc;
+        parameterIndex = 0;
         procedureDeclaration.parameters.forEach(x -> x.accept(this));
 
-        varOffset = 0;
-        procedureDeclaration.variables.forEach(x -> x.accept(this));
+        // the slots of the arguments passed in registers come first in the local variable area
+        varOffset = homeOffset;
+        if (options.stackSlotSharing) varOffset = new StackSlotColoring(procedureDeclaration, table).allocate(homeOffset);
+        else procedureDeclaration.variables.forEach(x -> x.accept(this));
         layout.localVarAreaSize = varOffset;
 
+        // every spill slot holds a single word
+        if (options.ershovOptimization)
+            layout.spillAreaSize = new ErshovNumbering().numberStatements(procedureDeclaration.body) * 4;
+
         maxCalleSize = 0;
+        containsCall = false;
         procedureDeclaration.body.forEach(x -> x.accept(this));
 
         layout.outgoingAreaSize = maxCalleSize;
+        // a procedure without calls never has to save its return address or set up a frame pointer
+        layout.isOptimizedLeafProcedure = options.leafProcedureOptimization && !containsCall;
+        layout.isFramePointerOmitted = options.framePointerOmission && !layout.isOptimizedLeafProcedure;
         table = global;
     }
 
@@ -91,8 +144,11 @@ public class VarAllocator extends DoNothingVisitor {
 
     @Override
     public void visit(CallStatement callStatement) {
+        // a tail call passes its arguments in the argument area of this procedure and does not return here
+        if (callStatement.isTailCall) return;
+        containsCall = true;
         ProcedureEntry entry = (ProcedureEntry)table.lookup(callStatement.procedureName);
-        Integer argumentSize = entry.parameterTypes.stream().map(x -> x.isReference ? REFERENCE_BYTESIZE : x.type.byteSize).reduce(0, Integer::sum);
+        Integer argumentSize = stackArgumentSize(options, entry);
         if (argumentSize > this.maxCalleSize)
             this.maxCalleSize = argumentSize;
     }
@@ -100,8 +156,14 @@ public class VarAllocator extends DoNothingVisitor {
     @Override
     public void visit(ParameterDeclaration parameterDeclaration) {
         VariableEntry entry = (VariableEntry) table.lookup(parameterDeclaration.name);
-        entry.offset = varOffset;
-        varOffset += entry.isReference ? REFERENCE_BYTESIZE : entry.type.byteSize;
+        int size = entry.isReference ? REFERENCE_BYTESIZE : entry.type.byteSize;
+        if (argumentRegister(options, procedure, parameterIndex++) != 0) {
+            homeOffset += size;
+            entry.offset = -homeOffset;
+        } else {
+            entry.offset = varOffset;
+            varOffset += size;
+        }
     }
 
     @Override
@@ -111,6 +173,17 @@ public class VarAllocator extends DoNothingVisitor {
         entry.offset = -varOffset;
     }
 
+    /**
+     * @return The position of a slot given by its offset from the frame pointer. Without a frame pointer, the position
+     * is shown relative to the stack pointer.
+     */
+    private static String position(StackLayout layout, String basis, Integer offset) {
+        if (offset == null) return "<- " + basis + " + NULL";
+        if (layout.isFramePointerOmitted)
+            return "<- SP + " + Try.execute(() -> layout.frameSize() + offset).map(Objects::toString).getOrElse("UNKNOWN");
+        return offset < 0 ? "<- " + basis + " - " + -offset : "<- " + basis + " + " + offset;
+    }
+
     /**
      * Formats and prints the variable allocation to a human-readable format
      * The stack layout
@@ -131,35 +204,56 @@ public class VarAllocator extends DoNothingVisitor {
             {
                 final var zipped = IntStream.range(0, procDec.parameters.size()).boxed()
                         .map(i -> new Pair<>(procDec.parameters.get(i), new Pair<>(((VariableEntry) entry.localTable.lookup(procDec.parameters.get(i).name)), entry.parameterTypes.get(i))))
+                        .filter(p -> p.second.second.register == 0)
                         .sorted(Comparator.comparing(p -> Optional.ofNullable(p.second.first.offset).map(o -> -o).orElse(Integer.MIN_VALUE)));
 
                 zipped.forEach(v -> {
                     boolean consistent = Objects.equals(v.second.first.offset, v.second.second.offset);
 
-                    ascii.line("par " + v.first.name.toString(), "<- " + varparBasis + " + " +
+                    ascii.line("par " + v.first.name.toString(),
                                     (consistent ?
-                                            StringOps.toString(v.second.first.offset) :
-                                            String.format("INCONSISTENT(%s/%s)",
+                                            position(entry.stackLayout, varparBasis, v.second.first.offset) :
+                                            "<- " + varparBasis + " + " + String.format("INCONSISTENT(%s/%s)",
                                                     StringOps.toString(v.second.first.offset),
                                                     StringOps.toString(v.second.second.offset))),
                             AsciiGraphicalTableBuilder.Alignment.LEFT);
                 });
             }
 
-            ascii.sep("BEGIN", "<- " + varparBasis);
-            if (!procDec.variables.isEmpty()) {
-                procDec.variables.stream()
-                        .map(v -> new AbstractMap.SimpleImmutableEntry<>(v, ((VariableEntry) entry.localTable.lookup(v.name))))
+            ascii.sep("BEGIN", entry.stackLayout.isFramePointerOmitted ? position(entry.stackLayout, varparBasis, 0) : "<- " + varparBasis);
+            if (!procDec.variables.isEmpty() || entry.stackLayout.spillAreaSize > 0 || entry.stackLayout.localVarAreaSize > 0) {
+                // the arguments passed in registers are stored in front of the variables
+                List<Map.Entry<String, VariableEntry>> locals = new ArrayList<>();
+                for (int i = 0; i < procDec.parameters.size(); i++)
+                    if (entry.parameterTypes.get(i).register != 0)
+                        locals.add(new AbstractMap.SimpleImmutableEntry<>(String.format("par %s ($%d)", procDec.parameters.get(i).name, entry.parameterTypes.get(i).register),
+                                (VariableEntry) entry.localTable.lookup(procDec.parameters.get(i).name)));
+                procDec.variables.forEach(v -> locals.add(new AbstractMap.SimpleImmutableEntry<>("var " + v.name, (VariableEntry) entry.localTable.lookup(v.name))));
+
+                // variables sharing a slot are listed in a single line
+                Map<Optional<Integer>, List<String>> slots = new LinkedHashMap<>();
+                locals.stream()
                         .sorted(Comparator.comparing(e -> Try.execute(() -> -e.getValue().offset).getOrElse(0)))
-                        .forEach(v -> ascii.line("var " + v.getKey().name.toString(),
-                                "<- " + varparBasis + " - " + Optional.ofNullable(v.getValue().offset).map(o -> -o).map(StringOps::toString).orElse("NULL"),
-                                AsciiGraphicalTableBuilder.Alignment.LEFT));
+                        .forEach(v -> slots.computeIfAbsent(Optional.ofNullable(v.getValue().offset), o -> new ArrayList<>()).add(v.getKey()));
+                slots.forEach((offset, names) -> ascii.line(String.join(", ", names),
+                        position(entry.stackLayout, varparBasis, offset.orElse(null)),
+                        AsciiGraphicalTableBuilder.Alignment.LEFT));
+
+                for (int i = 0; i < entry.stackLayout.spillAreaSize / 4; ++i) {
+                    ascii.line(String.format("spill %d", i + 1),
+                            position(entry.stackLayout, varparBasis, entry.stackLayout.spillSlotOffset(i)),
+                            AsciiGraphicalTableBuilder.Alignment.LEFT);
+                }
 
                 if (!isLeafOptimized) ascii.sep("");
             }
 
             if (isLeafOptimized) ascii.close("END");
-            else {
+            else if (entry.stackLayout.isFramePointerOmitted) {
+                ascii.line("Old Return",
+                        "<- SP + " + Try.execute(() -> entry.stackLayout.frameSize() + entry.stackLayout.oldReturnAddressOffset()).map(Objects::toString).getOrElse("UNKNOWN"),
+                        AsciiGraphicalTableBuilder.Alignment.LEFT);
+            } else {
                 ascii.line("Old FP",
                         "<- SP + " + Try.execute(entry.stackLayout::oldFramePointerOffset).map(Objects::toString).getOrElse("UNKNOWN"),
                         AsciiGraphicalTableBuilder.Alignment.LEFT);
@@ -167,6 +261,9 @@ public class VarAllocator extends DoNothingVisitor {
                 ascii.line("Old Return",
                         "<- FP - " + Try.execute(() -> -entry.stackLayout.oldReturnAddressOffset()).map(Objects::toString).getOrElse("UNKNOWN"),
                         AsciiGraphicalTableBuilder.Alignment.LEFT);
+            }
+
+            if (!isLeafOptimized) {
 
                 if (entry.stackLayout.outgoingAreaSize == null || entry.stackLayout.outgoingAreaSize > 0) {
 
@@ -192,10 +289,13 @@ public class VarAllocator extends DoNothingVisitor {
             System.out.printf("Variable allocation for procedure '%s':\n", procDec.name);
             System.out.printf("  - size of argument area = %s\n", StringOps.toString(entry.stackLayout.argumentAreaSize));
             System.out.printf("  - size of localvar area = %s\n", StringOps.toString(entry.stackLayout.localVarAreaSize));
+            if (entry.stackLayout.spillAreaSize > 0)
+                System.out.printf("  - size of spill area = %d\n", entry.stackLayout.spillAreaSize);
             System.out.printf("  - size of outgoing area = %s\n", StringOps.toString(entry.stackLayout.outgoingAreaSize));
             System.out.printf("  - frame size = %s\n", Try.execute(entry.stackLayout::frameSize).map(Objects::toString).getOrElse("UNKNOWN"));
             System.out.println();
             if (isLeafOptimized) System.out.println("  Stack layout (leaf optimized):");
+            else if (entry.stackLayout.isFramePointerOmitted) System.out.println("  Stack layout (frame pointer omitted):");
             else System.out.println("  Stack layout:");
             System.out.println(StringOps.indent(ascii.toString(), 4));
             System.out.println();
@@ -0,0 +1,43 @@
+package de.thm.mni.compilerbau.phases._05b_ir;
+
+import de.thm.mni.compilerbau.absyn.ArrayAccess;
+import de.thm.mni.compilerbau.absyn.IntLiteral;
+import de.thm.mni.compilerbau.absyn.Variable;
+import de.thm.mni.compilerbau.types.ArrayType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class contains the analysis of nested array accesses shared by the {@link IrBuilder} and the code generator
+ * when flattening the address computation of all dimensions.
+ */
+public final class ArrayAccesses {
+    private ArrayAccesses() {
+    }
+
+    /**
+     * @return The nested array accesses of a variable, starting with the outermost dimension.
+     */
+    public static List<ArrayAccess> levels(ArrayAccess arrayAccess) {
+        List<ArrayAccess> levels = new ArrayList<>();
+        for (Variable variable = arrayAccess; variable instanceof ArrayAccess level; variable = level.array)
+            levels.add(0, level);
+        return levels;
+    }
+
+    /**
+     * @return true if no dimension of the nested array accesses has elements of size 0.
+     */
+    public static boolean hasElements(ArrayAccess arrayAccess) {
+        return levels(arrayAccess).stream().allMatch(x -> ((ArrayType) x.array.dataType).baseType.byteSize > 0);
+    }
+
+    /**
+     * @return true if the index of the access is a literal within the bounds of the accessed array.
+     */
+    public static boolean isIndexInBounds(ArrayAccess arrayAccess) {
+        return arrayAccess.index instanceof IntLiteral literal && literal.value >= 0
+                && literal.value < ((ArrayType) arrayAccess.array.dataType).arraySize;
+    }
+}
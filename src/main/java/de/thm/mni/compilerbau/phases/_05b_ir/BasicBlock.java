@@ -0,0 +1,57 @@
+package de.thm.mni.compilerbau.phases._05b_ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class represents a basic block of the intermediate representation.
+ * A basic block is a sequence of instructions which is always executed from the first to the last instruction,
+ * followed by a {@link Terminator} which transfers control to the successors of the block.
+ * <p>
+ * The predecessors, the immediate dominator and the innermost loop of a block are calculated by
+ * {@link ControlFlowGraph#analyze()} and are only valid until the graph is modified.
+ */
+public class BasicBlock {
+    public final int id;
+    public int label; // -1 if the block has no label yet
+    public final List<Instruction> instructions = new ArrayList<>();
+    public Terminator terminator = null;
+
+    public final List<BasicBlock> predecessors = new ArrayList<>();
+    public BasicBlock immediateDominator = null;
+    public Loop loop = null;
+
+    BasicBlock(int id, int label) {
+        this.id = id;
+        this.label = label;
+    }
+
+    /**
+     * @return The blocks control may be transferred to from this block.
+     */
+    public List<BasicBlock> successors() {
+        return terminator.successors();
+    }
+
+    /**
+     * @return The number of loops this block is nested in.
+     */
+    public int loopDepth() {
+        return loop == null ? 0 : loop.depth;
+    }
+
+    /**
+     * @return The name of the block, which is its label if it already has one.
+     */
+    public String name() {
+        return label >= 0 ? "L" + label : "B" + id;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(name()).append(":\n");
+        instructions.forEach(x -> builder.append("    ").append(x).append('\n'));
+        builder.append("    ").append(terminator).append('\n');
+        return builder.toString();
+    }
+}
@@ -0,0 +1,244 @@
+package de.thm.mni.compilerbau.phases._05b_ir;
+
+import java.util.*;
+
+/**
+ * This class removes the index checks of array accesses, which are proven to be in bounds.
+ * <p>
+ * A range analysis calculates for every point of the procedure an interval containing all values a register may have
+ * there. Constants, copies and arithmetic propagate ranges forward, the comparison of a branch narrows the ranges of
+ * its operands on both outgoing edges, so that the range of a loop variable inside of the loop is bounded by the loop
+ * condition. To reach a fixed point, the ranges at loop headers are widened to the whole integer range in the
+ * direction they keep growing, after the header has been visited a few times.
+ * <p>
+ * A check is removed if the range of the index lies within zero and the size of the array. All other checks are kept.
+ */
+public class BoundsCheckElimination {
+    private static final int VISITS_BEFORE_WIDENING = 3;
+
+    /**
+     * An interval of integers, both bounds are inclusive.
+     */
+    private record Range(long low, long high) {
+        static final Range ALL = new Range(Integer.MIN_VALUE, Integer.MAX_VALUE);
+
+        static Range of(long low, long high) {
+            if (low < Integer.MIN_VALUE || high > Integer.MAX_VALUE) return ALL; // the operation may overflow
+            return new Range(low, high);
+        }
+
+        boolean isEmpty() {
+            return low > high;
+        }
+
+        Range join(Range other) {
+            return new Range(Math.min(low, other.low), Math.max(high, other.high));
+        }
+
+        Range intersect(Range other) {
+            return new Range(Math.max(low, other.low), Math.min(high, other.high));
+        }
+
+        Range widen(Range next) {
+            return new Range(next.low < low ? Integer.MIN_VALUE : low, next.high > high ? Integer.MAX_VALUE : high);
+        }
+    }
+
+    private final Map<BasicBlock, Map<VirtualRegister, Range>> entryStates = new HashMap<>();
+    private final Map<BasicBlock, Integer> visits = new HashMap<>();
+
+    /**
+     * Removes the provably redundant index checks of a procedure. The graph has to be analyzed.
+     *
+     * @param graph The procedure to transform.
+     * @return The number of checks removed.
+     */
+    public int eliminate(ControlFlowGraph graph) {
+        analyze(graph);
+
+        int removed = 0;
+        for (BasicBlock block : graph.blocks) {
+            Map<VirtualRegister, Range> state = entryStates.get(block);
+            if (state == null) continue; // not reachable with any values
+            state = new HashMap<>(state);
+
+            Iterator<Instruction> instructions = block.instructions.iterator();
+            while (instructions.hasNext()) {
+                Instruction instruction = instructions.next();
+                if (instruction instanceof Instruction.CheckIndex check && isInBounds(state, check)) {
+                    instructions.remove();
+                    removed++;
+                } else {
+                    transfer(state, instruction);
+                }
+            }
+        }
+        return removed;
+    }
+
+    private void analyze(ControlFlowGraph graph) {
+        List<BasicBlock> order = graph.reversePostorder();
+        entryStates.put(graph.entry(), new HashMap<>());
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (BasicBlock block : order) {
+                Map<VirtualRegister, Range> entry = entryStates.get(block);
+                if (entry == null) continue;
+
+                Map<VirtualRegister, Range> state = new HashMap<>(entry);
+                for (Instruction instruction : block.instructions)
+                    transfer(state, instruction);
+
+                if (block.terminator instanceof Terminator.Branch branch) {
+                    changed |= propagate(branch.trueTarget, refine(state, branch.condition, branch.left, branch.right));
+                    changed |= propagate(branch.falseTarget, refine(state, branch.condition.negate(), branch.left, branch.right));
+                } else {
+                    for (BasicBlock successor : block.successors())
+                        changed |= propagate(successor, state);
+                }
+            }
+        }
+    }
+
+    /**
+     * Joins a state into the entry state of a block, widening it if the block is a loop header visited repeatedly.
+     *
+     * @return true if the entry state of the block has changed.
+     */
+    private boolean propagate(BasicBlock block, Map<VirtualRegister, Range> state) {
+        if (state == null) return false; // the edge is never taken
+        Map<VirtualRegister, Range> old = entryStates.get(block);
+        if (old == null) {
+            entryStates.put(block, new HashMap<>(state));
+            return true;
+        }
+
+        boolean widen = block.loop != null && block.loop.header == block && visits.merge(block, 1, Integer::sum) > VISITS_BEFORE_WIDENING;
+        Map<VirtualRegister, Range> joined = new HashMap<>();
+        for (Map.Entry<VirtualRegister, Range> entry : old.entrySet()) {
+            Range other = state.get(entry.getKey());
+            if (other == null) continue; // unknown in one of the states
+            Range range = entry.getValue().join(other);
+            joined.put(entry.getKey(), widen ? entry.getValue().widen(range) : range);
+        }
+        joined.values().removeIf(range -> range.equals(Range.ALL));
+
+        if (joined.equals(old)) return false;
+        entryStates.put(block, joined);
+        return true;
+    }
+
+    private static Range range(Map<VirtualRegister, Range> state, VirtualRegister register) {
+        return state.getOrDefault(register, Range.ALL);
+    }
+
+    private static void set(Map<VirtualRegister, Range> state, VirtualRegister register, Range range) {
+        if (range.equals(Range.ALL)) state.remove(register);
+        else state.put(register, range);
+    }
+
+    private static boolean isInBounds(Map<VirtualRegister, Range> state, Instruction.CheckIndex check) {
+        Range index = range(state, check.index);
+        return index.low >= 0 && index.high < range(state, check.size).low;
+    }
+
+    /**
+     * Updates the ranges of the registers by the effect of an instruction.
+     */
+    private static void transfer(Map<VirtualRegister, Range> state, Instruction instruction) {
+        if (instruction instanceof Instruction.CheckIndex check) {
+            // the index is in bounds if execution continues after the check
+            if (range(state, check.size).low > 0)
+                set(state, check.index, range(state, check.index).intersect(new Range(0, range(state, check.size).high - 1)));
+            return;
+        }
+
+        VirtualRegister defined = instruction.defined();
+        if (defined == null) return;
+
+        Range result = Range.ALL;
+        if (instruction instanceof Instruction.LoadImmediate load) {
+            result = new Range(load.value, load.value);
+        } else if (instruction instanceof Instruction.Move move) {
+            result = range(state, move.source);
+        } else if (instruction instanceof Instruction.Negate negate) {
+            Range operand = range(state, negate.operand);
+            result = Range.of(-operand.high, -operand.low);
+        } else if (instruction instanceof Instruction.Binary binary) {
+            Range left = range(state, binary.left);
+            Range right = binary.right instanceof Immediate immediate
+                    ? new Range(immediate.value, immediate.value)
+                    : range(state, (VirtualRegister) binary.right);
+            result = arithmetic(binary.operator, left, right);
+        }
+        set(state, defined, result);
+    }
+
+    private static Range arithmetic(Instruction.Binary.Operator operator, Range left, Range right) {
+        switch (operator) {
+            case ADD:
+                return Range.of(left.low + right.low, left.high + right.high);
+            case SUB:
+                return Range.of(left.low - right.high, left.high - right.low);
+            case MUL: {
+                long[] products = {left.low * right.low, left.low * right.high, left.high * right.low, left.high * right.high};
+                return Range.of(Arrays.stream(products).min().getAsLong(), Arrays.stream(products).max().getAsLong());
+            }
+            case DIV: {
+                if (right.low != right.high || right.low == 0) return Range.ALL;
+                long divisor = right.low;
+                return divisor > 0 ? Range.of(left.low / divisor, left.high / divisor) : Range.of(left.high / divisor, left.low / divisor);
+            }
+            case SLL:
+                if (right.low != right.high || right.low < 0 || right.low > 31) return Range.ALL;
+                return arithmetic(Instruction.Binary.Operator.MUL, left, new Range(1L << right.low, 1L << right.low));
+            case SAR:
+            case SLR:
+                if (right.low != right.high || right.low < 0 || right.low > 31) return Range.ALL;
+                if (operator == Instruction.Binary.Operator.SLR && left.low < 0) return Range.of(0, 0xFFFFFFFFL >>> right.low);
+                return Range.of(left.low >> right.low, left.high >> right.low);
+            default:
+                return Range.ALL;
+        }
+    }
+
+    /**
+     * Narrows the ranges of the operands of a comparison to the values for which it holds.
+     *
+     * @return The narrowed state or null, if the comparison can never hold.
+     */
+    private static Map<VirtualRegister, Range> refine(Map<VirtualRegister, Range> state, Terminator.Branch.Condition condition,
+                                                      VirtualRegister left, VirtualRegister right) {
+        if (condition == Terminator.Branch.Condition.GT || condition == Terminator.Branch.Condition.GE)
+            return refine(state, condition.swap(), right, left);
+
+        Range l = range(state, left), r = range(state, right);
+        switch (condition) {
+            case EQ:
+                l = r = l.intersect(r);
+                break;
+            case NE:
+                if (r.low == r.high && l.low == r.low) l = new Range(l.low + 1, l.high);
+                else if (r.low == r.high && l.high == r.low) l = new Range(l.low, l.high - 1);
+                if (l.low == l.high && r.low == l.low) r = new Range(r.low + 1, r.high);
+                else if (l.low == l.high && r.high == l.low) r = new Range(r.low, r.high - 1);
+                break;
+            case LT:
+                l = l.intersect(new Range(Integer.MIN_VALUE, r.high - 1));
+                r = r.intersect(new Range(l.low + 1, Integer.MAX_VALUE));
+                break;
+            case LE:
+                l = l.intersect(new Range(Integer.MIN_VALUE, r.high));
+                r = r.intersect(new Range(l.low, Integer.MAX_VALUE));
+                break;
+        }
+        if (l.isEmpty() || r.isEmpty()) return null;
+
+        Map<VirtualRegister, Range> refined = new HashMap<>(state);
+        set(refined, left, l);
+        if (right != left) set(refined, right, r);
+        return refined;
+    }
+}
@@ -0,0 +1,200 @@
+package de.thm.mni.compilerbau.phases._05b_ir;
+
+import de.thm.mni.compilerbau.phases._05_varalloc.StackLayout;
+import de.thm.mni.compilerbau.table.Identifier;
+import de.thm.mni.compilerbau.table.ParameterType;
+
+import java.util.*;
+
+/**
+ * This class represents the control-flow graph of a single procedure in the intermediate representation.
+ * <p>
+ * The blocks are stored in layout order, which is the order the backend emits them in. The first block is the entry
+ * of the procedure. After the graph has been modified, {@link #analyze()} has to be called to recalculate the
+ * predecessors, dominators and loops.
+ */
+public class ControlFlowGraph {
+    public final Identifier name;
+    public final StackLayout layout;
+    public final List<BasicBlock> blocks = new ArrayList<>();
+    public final List<Loop> loops = new ArrayList<>(); // outer loops before inner loops
+    public final Map<VirtualRegister, Integer> homeSlots = new HashMap<>(); // frame slots of promoted variables
+    public final Set<VirtualRegister> unchangedHomes = new HashSet<>(); // promoted variables always equal to their slot
+    public final Map<Integer, ParameterType> parameters = new HashMap<>(); // parameters by the offsets of their slots
+    public boolean isExported = true;
+
+    private int registerCount = 0;
+    private int blockCount = 0;
+
+    public ControlFlowGraph(Identifier name, StackLayout layout) {
+        this.name = name;
+        this.layout = layout;
+    }
+
+    public VirtualRegister newRegister() {
+        return new VirtualRegister(registerCount++);
+    }
+
+    /**
+     * @return The number of virtual registers created for this procedure, all registers have a smaller number.
+     */
+    public int registerCount() {
+        return registerCount;
+    }
+
+    /**
+     * Creates a new block, which still has to be inserted into the layout.
+     *
+     * @param label The label of the block or -1 if it does not need one.
+     * @return The new block.
+     */
+    public BasicBlock newBlock(int label) {
+        return new BasicBlock(blockCount++, label);
+    }
+
+    public BasicBlock entry() {
+        return blocks.get(0);
+    }
+
+    /**
+     * Removes unreachable blocks and recalculates the predecessors, dominators and loops of all blocks.
+     */
+    public void analyze() {
+        List<BasicBlock> order = reversePostorder();
+        blocks.retainAll(new HashSet<>(order));
+
+        blocks.forEach(block -> {
+            block.predecessors.clear();
+            block.immediateDominator = null;
+            block.loop = null;
+        });
+        blocks.forEach(block -> block.successors().forEach(successor -> successor.predecessors.add(block)));
+
+        computeDominators(order);
+        computeLoops(order);
+    }
+
+    /**
+     * @return All blocks reachable from the entry, each block before its successors except for back edges.
+     */
+    public List<BasicBlock> reversePostorder() {
+        List<BasicBlock> postorder = new ArrayList<>();
+        Set<BasicBlock> visited = new HashSet<>();
+        Deque<DepthFirstEntry> stack = new ArrayDeque<>();
+
+        visited.add(entry());
+        stack.push(new DepthFirstEntry(entry()));
+        while (!stack.isEmpty()) {
+            DepthFirstEntry top = stack.peek();
+            if (top.successors.hasNext()) {
+                BasicBlock successor = top.successors.next();
+                if (visited.add(successor))
+                    stack.push(new DepthFirstEntry(successor));
+            } else {
+                postorder.add(top.block);
+                stack.pop();
+            }
+        }
+        Collections.reverse(postorder);
+        return postorder;
+    }
+
+    private static class DepthFirstEntry {
+        final BasicBlock block;
+        final Iterator<BasicBlock> successors;
+
+        DepthFirstEntry(BasicBlock block) {
+            this.block = block;
+            this.successors = block.successors().iterator();
+        }
+    }
+
+    /**
+     * Calculates the immediate dominators with the algorithm of Cooper, Harvey and Kennedy.
+     */
+    private void computeDominators(List<BasicBlock> order) {
+        Map<BasicBlock, Integer> index = new HashMap<>();
+        for (int i = 0; i < order.size(); i++)
+            index.put(order.get(i), i);
+
+        BasicBlock entry = entry();
+        entry.immediateDominator = entry;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (BasicBlock block : order.subList(1, order.size())) {
+                BasicBlock dominator = null;
+                for (BasicBlock predecessor : block.predecessors) {
+                    if (predecessor.immediateDominator == null) continue;
+                    dominator = dominator == null ? predecessor : intersect(predecessor, dominator, index);
+                }
+                if (dominator != block.immediateDominator) {
+                    block.immediateDominator = dominator;
+                    changed = true;
+                }
+            }
+        }
+        entry.immediateDominator = null;
+    }
+
+    private BasicBlock intersect(BasicBlock a, BasicBlock b, Map<BasicBlock, Integer> index) {
+        while (a != b) {
+            while (index.get(a) > index.get(b)) a = a.immediateDominator;
+            while (index.get(b) > index.get(a)) b = b.immediateDominator;
+        }
+        return a;
+    }
+
+    /**
+     * @return true if every path from the entry to block b passes block a.
+     */
+    public boolean dominates(BasicBlock a, BasicBlock b) {
+        for (BasicBlock block = b; block != null; block = block.immediateDominator)
+            if (block == a) return true;
+        return false;
+    }
+
+    /**
+     * Finds the natural loops of all back edges and nests them into each other.
+     */
+    private void computeLoops(List<BasicBlock> order) {
+        Map<BasicBlock, Loop> byHeader = new LinkedHashMap<>();
+        for (BasicBlock block : order) {
+            for (BasicBlock successor : block.successors()) {
+                if (!dominates(successor, block)) continue;
+
+                Loop loop = byHeader.computeIfAbsent(successor, Loop::new);
+                Deque<BasicBlock> worklist = new ArrayDeque<>();
+                if (loop.blocks.add(block)) worklist.push(block);
+                while (!worklist.isEmpty())
+                    for (BasicBlock predecessor : worklist.pop().predecessors)
+                        if (loop.blocks.add(predecessor)) worklist.push(predecessor);
+            }
+        }
+
+        loops.clear();
+        loops.addAll(byHeader.values());
+        loops.sort(Comparator.comparingInt((Loop loop) -> loop.blocks.size()).reversed());
+        for (int i = 0; i < loops.size(); i++) {
+            Loop loop = loops.get(i);
+            loop.children.clear();
+            loop.parent = null;
+            for (int j = i - 1; j >= 0; j--) {
+                if (loops.get(j).contains(loop.header)) {
+                    loop.parent = loops.get(j);
+                    break;
+                }
+            }
+            loop.depth = loop.parent == null ? 1 : loop.parent.depth + 1;
+            if (loop.parent != null) loop.parent.children.add(loop);
+            loop.blocks.forEach(block -> block.loop = loop);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("procedure ").append(name).append('\n');
+        blocks.forEach(builder::append);
+        return builder.toString();
+    }
+}
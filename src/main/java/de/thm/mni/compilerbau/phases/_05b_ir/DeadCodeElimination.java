@@ -0,0 +1,115 @@
+package de.thm.mni.compilerbau.phases._05b_ir;
+
+import java.util.*;
+
+/**
+ * This class removes computations whose results are never used and branches whose outcome is known.
+ * <p>
+ * After {@link ScalarPromotion}, an assignment to a local variable which is not escaping is a definition of the
+ * register of the variable. Such a definition is dead, if the register is not live afterwards, i.e. if the variable is
+ * overwritten or the procedure ends before the value is read. A dead instruction without side effects is removed,
+ * which may make the instructions computing its operands dead as well. Stores to memory are always kept, including
+ * the stores of the arguments into the parameter slots in front of a tail call. Calls, index checks and divisions by
+ * a value which may be zero are kept as well, since they may raise an error. An assignment to a parameter in front
+ * of a recursive call jumping back to the entry is a definition read by the next iteration, so it stays live.
+ * <p>
+ * A branch comparing two constants, or a register with itself, always transfers control to the same block. It is
+ * replaced by a jump and the code which is no longer reachable is removed, when the graph is analyzed again.
+ */
+public class DeadCodeElimination {
+
+    /**
+     * Removes the dead instructions and unreachable blocks of a procedure. The graph is analyzed again afterwards.
+     *
+     * @param graph The procedure to transform.
+     * @return The number of removed instructions.
+     */
+    public int eliminate(ControlFlowGraph graph) {
+        int removed = foldBranches(graph);
+        graph.analyze();
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            Liveness liveness = new Liveness(graph);
+            for (BasicBlock block : graph.blocks) {
+                BitSet live = (BitSet) liveness.liveOut(block).clone();
+                block.terminator.used().forEach(x -> live.set(x.number));
+                for (int i = block.instructions.size() - 1; i >= 0; i--) {
+                    Instruction instruction = block.instructions.get(i);
+                    VirtualRegister defined = instruction.defined();
+                    if (defined != null && !live.get(defined.number) && canBeRemoved(instruction)) {
+                        block.instructions.remove(i);
+                        removed++;
+                        changed = true;
+                        continue;
+                    }
+                    if (defined != null) live.clear(defined.number);
+                    instruction.used().forEach(x -> live.set(x.number));
+                }
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * @return true if executing the instruction has no effect besides defining its register.
+     */
+    private static boolean canBeRemoved(Instruction instruction) {
+        if (instruction instanceof Instruction.Binary binary)
+            return binary.operator != Instruction.Binary.Operator.DIV
+                    || binary.right instanceof Immediate immediate && immediate.value != 0;
+        return instruction instanceof Instruction.LoadImmediate || instruction instanceof Instruction.Move
+                || instruction instanceof Instruction.FrameAddress || instruction instanceof Instruction.Load
+                || instruction instanceof Instruction.Negate || instruction instanceof Instruction.IncomingArgument;
+    }
+
+    /**
+     * Replaces the branches with a known outcome by jumps.
+     *
+     * @return The number of removed branches.
+     */
+    private static int foldBranches(ControlFlowGraph graph) {
+        // registers defined only by loading a constant hold it wherever they are used
+        Map<VirtualRegister, Integer> definitions = new HashMap<>();
+        Map<VirtualRegister, Integer> constants = new HashMap<>();
+        for (BasicBlock block : graph.blocks)
+            for (Instruction instruction : block.instructions) {
+                if (instruction.defined() == null) continue;
+                definitions.merge(instruction.defined(), 1, Integer::sum);
+                if (instruction instanceof Instruction.LoadImmediate constant)
+                    constants.put(constant.destination, constant.value);
+            }
+        constants.keySet().removeIf(x -> definitions.get(x) != 1);
+
+        int folded = 0;
+        for (BasicBlock block : graph.blocks) {
+            if (!(block.terminator instanceof Terminator.Branch branch)) continue;
+            Optional<Boolean> outcome = outcome(branch, constants);
+            if (outcome.isEmpty() && branch.trueTarget != branch.falseTarget) continue;
+            block.terminator = new Terminator.Jump(outcome.orElse(true) ? branch.trueTarget : branch.falseTarget);
+            folded++;
+        }
+        return folded;
+    }
+
+    private static Optional<Boolean> outcome(Terminator.Branch branch, Map<VirtualRegister, Integer> constants) {
+        if (branch.left == branch.right)
+            return Optional.of(switch (branch.condition) {
+                case EQ, LE, GE -> true;
+                case NE, LT, GT -> false;
+            });
+        if (!constants.containsKey(branch.left) || !constants.containsKey(branch.right))
+            return Optional.empty();
+
+        int l = constants.get(branch.left), r = constants.get(branch.right);
+        return Optional.of(switch (branch.condition) {
+            case EQ -> l == r;
+            case NE -> l != r;
+            case LT -> l < r;
+            case LE -> l <= r;
+            case GT -> l > r;
+            case GE -> l >= r;
+        });
+    }
+}
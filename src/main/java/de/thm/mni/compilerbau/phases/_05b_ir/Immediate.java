@@ -0,0 +1,24 @@
+package de.thm.mni.compilerbau.phases._05b_ir;
+
+/**
+ * This class represents a constant operand, which is encoded directly into an instruction.
+ */
+public final class Immediate implements Operand {
+    public final int value;
+
+    public Immediate(int value) {
+        this.value = value;
+    }
+
+    /**
+     * @return true if the value fits into the signed 16 bit immediate field of an arithmetic instruction.
+     */
+    public static boolean isEncodable(int value) {
+        return value >= Short.MIN_VALUE && value <= Short.MAX_VALUE;
+    }
+
+    @Override
+    public String toString() {
+        return Integer.toString(value);
+    }
+}
@@ -0,0 +1,516 @@
+package de.thm.mni.compilerbau.phases._05b_ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class is the abstract superclass of all instructions of the intermediate representation.
+ * <p>
+ * Instructions are three-address instructions operating on an unlimited number of {@link VirtualRegister}s. Every
+ * instruction defines at most one register, memory is only accessed by explicit {@link Load} and {@link Store}
+ * instructions. The operands are not final, so that optimizations can rewrite instructions in place.
+ */
+public abstract class Instruction {
+
+    /**
+     * @return The register defined by this instruction or null, if it does not define a register.
+     */
+    public VirtualRegister defined() {
+        return null;
+    }
+
+    /**
+     * @return The registers used by this instruction, in the order they are read.
+     */
+    public abstract List<VirtualRegister> used();
+
+    /**
+     * Replaces every use of a register by another register.
+     *
+     * @param from The register which is no longer used.
+     * @param to   The register used instead.
+     */
+    public abstract void replaceUse(VirtualRegister from, VirtualRegister to);
+
+    /**
+     * Lets this instruction define another register instead of the one it defines now.
+     *
+     * @param to The register to define instead.
+     */
+    public void redefine(VirtualRegister to) {
+        throw new UnsupportedOperationException(this + " does not define a register");
+    }
+
+    public abstract void accept(InstructionVisitor visitor);
+
+    private static VirtualRegister replace(VirtualRegister register, VirtualRegister from, VirtualRegister to) {
+        return register == from ? to : register;
+    }
+
+    private static List<VirtualRegister> registers(Operand... operands) {
+        List<VirtualRegister> registers = new ArrayList<>();
+        for (Operand operand : operands)
+            if (operand instanceof VirtualRegister)
+                registers.add((VirtualRegister) operand);
+        return registers;
+    }
+
+    /**
+     * Loads a constant into a register.
+     */
+    public static final class LoadImmediate extends Instruction {
+        public VirtualRegister destination;
+        public int value;
+
+        public LoadImmediate(VirtualRegister destination, int value) {
+            this.destination = destination;
+            this.value = value;
+        }
+
+        @Override
+        public VirtualRegister defined() {
+            return destination;
+        }
+
+        @Override
+        public List<VirtualRegister> used() {
+            return List.of();
+        }
+
+        @Override
+        public void replaceUse(VirtualRegister from, VirtualRegister to) {
+        }
+
+        @Override
+        public void redefine(VirtualRegister to) {
+            destination = to;
+        }
+
+        @Override
+        public void accept(InstructionVisitor visitor) {
+            visitor.visit(this);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s := %d", destination, value);
+        }
+    }
+
+    /**
+     * Copies the value of a register into another register.
+     */
+    public static final class Move extends Instruction {
+        public VirtualRegister destination;
+        public VirtualRegister source;
+
+        public Move(VirtualRegister destination, VirtualRegister source) {
+            this.destination = destination;
+            this.source = source;
+        }
+
+        @Override
+        public VirtualRegister defined() {
+            return destination;
+        }
+
+        @Override
+        public List<VirtualRegister> used() {
+            return List.of(source);
+        }
+
+        @Override
+        public void replaceUse(VirtualRegister from, VirtualRegister to) {
+            source = replace(source, from, to);
+        }
+
+        @Override
+        public void redefine(VirtualRegister to) {
+            destination = to;
+        }
+
+        @Override
+        public void accept(InstructionVisitor visitor) {
+            visitor.visit(this);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s := %s", destination, source);
+        }
+    }
+
+    /**
+     * Computes the address of a slot in the stack frame of the procedure.
+     * The offset is relative to the frame pointer, so parameters have positive and local variables negative offsets.
+     */
+    public static final class FrameAddress extends Instruction {
+        public VirtualRegister destination;
+        public int offset;
+
+        public FrameAddress(VirtualRegister destination, int offset) {
+            this.destination = destination;
+            this.offset = offset;
+        }
+
+        @Override
+        public VirtualRegister defined() {
+            return destination;
+        }
+
+        @Override
+        public List<VirtualRegister> used() {
+            return List.of();
+        }
+
+        @Override
+        public void replaceUse(VirtualRegister from, VirtualRegister to) {
+        }
+
+        @Override
+        public void redefine(VirtualRegister to) {
+            destination = to;
+        }
+
+        @Override
+        public void accept(InstructionVisitor visitor) {
+            visitor.visit(this);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s := FP + %d", destination, offset);
+        }
+    }
+
+    /**
+     * Loads a word from memory.
+     */
+    public static final class Load extends Instruction {
+        public VirtualRegister destination;
+        public VirtualRegister address;
+        public int offset;
+
+        public Load(VirtualRegister destination, VirtualRegister address, int offset) {
+            this.destination = destination;
+            this.address = address;
+            this.offset = offset;
+        }
+
+        @Override
+        public VirtualRegister defined() {
+            return destination;
+        }
+
+        @Override
+        public List<VirtualRegister> used() {
+            return List.of(address);
+        }
+
+        @Override
+        public void replaceUse(VirtualRegister from, VirtualRegister to) {
+            address = replace(address, from, to);
+        }
+
+        @Override
+        public void redefine(VirtualRegister to) {
+            destination = to;
+        }
+
+        @Override
+        public void accept(InstructionVisitor visitor) {
+            visitor.visit(this);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s := mem[%s + %d]", destination, address, offset);
+        }
+    }
+
+    /**
+     * Stores a word to memory.
+     */
+    public static final class Store extends Instruction {
+        public VirtualRegister value;
+        public VirtualRegister address;
+        public int offset;
+
+        public Store(VirtualRegister value, VirtualRegister address, int offset) {
+            this.value = value;
+            this.address = address;
+            this.offset = offset;
+        }
+
+        @Override
+        public List<VirtualRegister> used() {
+            return List.of(value, address);
+        }
+
+        @Override
+        public void replaceUse(VirtualRegister from, VirtualRegister to) {
+            value = replace(value, from, to);
+            address = replace(address, from, to);
+        }
+
+        @Override
+        public void accept(InstructionVisitor visitor) {
+            visitor.visit(this);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("mem[%s + %d] := %s", address, offset, value);
+        }
+    }
+
+    /**
+     * Stores an argument of the next call into the outgoing area of the stack frame or, with --regArgs, into the
+     * register it is passed in. Nothing is executed between the last argument and the call which could change the
+     * argument registers.
+     */
+    public static final class StoreArgument extends Instruction {
+        public VirtualRegister value;
+        public int offset;
+        public final int index;
+        public final int register; // 0 if the argument is passed on the stack
+
+        public StoreArgument(VirtualRegister value, int offset, int index, int register) {
+            this.value = value;
+            this.offset = offset;
+            this.index = index;
+            this.register = register;
+        }
+
+        @Override
+        public List<VirtualRegister> used() {
+            return List.of(value);
+        }
+
+        @Override
+        public void replaceUse(VirtualRegister from, VirtualRegister to) {
+            value = replace(value, from, to);
+        }
+
+        @Override
+        public void accept(InstructionVisitor visitor) {
+            visitor.visit(this);
+        }
+
+        @Override
+        public String toString() {
+            if (register != 0) return String.format("arg #%d ($%d) := %s", index, register, value);
+            return String.format("arg #%d (SP + %d) := %s", index, offset, value);
+        }
+    }
+
+    /**
+     * Copies an argument passed in a register into a register. It is only used at the entry of a procedure, before
+     * any call may overwrite the register the argument has been passed in.
+     */
+    public static final class IncomingArgument extends Instruction {
+        public VirtualRegister destination;
+        public final int index;
+        public final int register;
+
+        public IncomingArgument(VirtualRegister destination, int index, int register) {
+            this.destination = destination;
+            this.index = index;
+            this.register = register;
+        }
+
+        @Override
+        public VirtualRegister defined() {
+            return destination;
+        }
+
+        @Override
+        public List<VirtualRegister> used() {
+            return List.of();
+        }
+
+        @Override
+        public void replaceUse(VirtualRegister from, VirtualRegister to) {
+        }
+
+        @Override
+        public void redefine(VirtualRegister to) {
+            destination = to;
+        }
+
+        @Override
+        public void accept(InstructionVisitor visitor) {
+            visitor.visit(this);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s := arg #%d ($%d)", destination, index, register);
+        }
+    }
+
+    /**
+     * Applies an arithmetic operator to two operands.
+     * The shift operators shift the left operand left, right arithmetically or right logically.
+     */
+    public static final class Binary extends Instruction {
+        public enum Operator {
+            ADD, SUB, MUL, DIV, SLL, SAR, SLR;
+
+            public String mnemonic() {
+                return name().toLowerCase();
+            }
+        }
+
+        public Operator operator;
+        public VirtualRegister destination;
+        public VirtualRegister left;
+        public Operand right;
+
+        public Binary(Operator operator, VirtualRegister destination, VirtualRegister left, Operand right) {
+            this.operator = operator;
+            this.destination = destination;
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public VirtualRegister defined() {
+            return destination;
+        }
+
+        @Override
+        public List<VirtualRegister> used() {
+            return registers(left, right);
+        }
+
+        @Override
+        public void replaceUse(VirtualRegister from, VirtualRegister to) {
+            left = replace(left, from, to);
+            if (right == from) right = to;
+        }
+
+        @Override
+        public void redefine(VirtualRegister to) {
+            destination = to;
+        }
+
+        @Override
+        public void accept(InstructionVisitor visitor) {
+            visitor.visit(this);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s := %s %s %s", destination, operator.mnemonic(), left, right);
+        }
+    }
+
+    /**
+     * Negates the value of a register.
+     */
+    public static final class Negate extends Instruction {
+        public VirtualRegister destination;
+        public VirtualRegister operand;
+
+        public Negate(VirtualRegister destination, VirtualRegister operand) {
+            this.destination = destination;
+            this.operand = operand;
+        }
+
+        @Override
+        public VirtualRegister defined() {
+            return destination;
+        }
+
+        @Override
+        public List<VirtualRegister> used() {
+            return List.of(operand);
+        }
+
+        @Override
+        public void replaceUse(VirtualRegister from, VirtualRegister to) {
+            operand = replace(operand, from, to);
+        }
+
+        @Override
+        public void redefine(VirtualRegister to) {
+            destination = to;
+        }
+
+        @Override
+        public void accept(InstructionVisitor visitor) {
+            visitor.visit(this);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s := -%s", destination, operand);
+        }
+    }
+
+    /**
+     * Raises an index error, if the index is not smaller than the size of the array (compared unsigned).
+     */
+    public static final class CheckIndex extends Instruction {
+        public VirtualRegister index;
+        public VirtualRegister size;
+
+        public CheckIndex(VirtualRegister index, VirtualRegister size) {
+            this.index = index;
+            this.size = size;
+        }
+
+        @Override
+        public List<VirtualRegister> used() {
+            return List.of(index, size);
+        }
+
+        @Override
+        public void replaceUse(VirtualRegister from, VirtualRegister to) {
+            index = replace(index, from, to);
+            size = replace(size, from, to);
+        }
+
+        @Override
+        public void accept(InstructionVisitor visitor) {
+            visitor.visit(this);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("check %s < %s", index, size);
+        }
+    }
+
+    /**
+     * Calls a procedure, whose arguments have been stored by {@link StoreArgument} instructions before.
+     * No register keeps its value across a call.
+     */
+    public static final class Call extends Instruction {
+        public final String procedure;
+
+        public Call(String procedure) {
+            this.procedure = procedure;
+        }
+
+        @Override
+        public List<VirtualRegister> used() {
+            return List.of();
+        }
+
+        @Override
+        public void replaceUse(VirtualRegister from, VirtualRegister to) {
+        }
+
+        @Override
+        public void accept(InstructionVisitor visitor) {
+            visitor.visit(this);
+        }
+
+        @Override
+        public String toString() {
+            return "call " + procedure;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package de.thm.mni.compilerbau.phases._05b_ir;
+
+/**
+ * This interface is used to implement the visitor pattern for the instructions of the intermediate representation.
+ */
+public interface InstructionVisitor {
+    void visit(Instruction.LoadImmediate loadImmediate);
+
+    void visit(Instruction.Move move);
+
+    void visit(Instruction.FrameAddress frameAddress);
+
+    void visit(Instruction.Load load);
+
+    void visit(Instruction.Store store);
+
+    void visit(Instruction.StoreArgument storeArgument);
+
+    void visit(Instruction.IncomingArgument incomingArgument);
+
+    void visit(Instruction.Binary binary);
+
+    void visit(Instruction.Negate negate);
+
+    void visit(Instruction.CheckIndex checkIndex);
+
+    void visit(Instruction.Call call);
+
+    void visit(Terminator.Jump jump);
+
+    void visit(Terminator.Branch branch);
+
+    void visit(Terminator.Return ret);
+
+    void visit(Terminator.TailCall tailCall);
+}
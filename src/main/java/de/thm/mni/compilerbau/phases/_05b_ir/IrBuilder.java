@@ -0,0 +1,509 @@
+package de.thm.mni.compilerbau.phases._05b_ir;
+
+import de.thm.mni.compilerbau.CommandLineOptions;
+import de.thm.mni.compilerbau.absyn.*;
+import de.thm.mni.compilerbau.absyn.visitor.DoNothingVisitor;
+import de.thm.mni.compilerbau.phases._05_varalloc.ErshovNumbering;
+import de.thm.mni.compilerbau.table.ParameterType;
+import de.thm.mni.compilerbau.table.ProcedureEntry;
+import de.thm.mni.compilerbau.table.SymbolTable;
+import de.thm.mni.compilerbau.table.VariableEntry;
+import de.thm.mni.compilerbau.types.ArrayType;
+import de.thm.mni.compilerbau.types.RecordType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class is used to lower the abstract syntax tree of the currently compiled SPL program into the
+ * intermediate representation.
+ * <p>
+ * Every procedure is translated into a {@link ControlFlowGraph}. Expressions are evaluated into fresh
+ * {@link VirtualRegister}s, variables are accessed by explicit loads and stores of their frame slots. The blocks and
+ * labels are created in the same order the {@link de.thm.mni.compilerbau.phases._06_codegen.CodeGenerator} emits
+ * them, so that the translation of unoptimized code matches the direct translation.
+ */
+public class IrBuilder extends DoNothingVisitor {
+    private final CommandLineOptions options;
+    private SymbolTable table;
+    private IrProgram program;
+    private ControlFlowGraph graph;
+    private BasicBlock current;
+    private VirtualRegister result;
+    private int displacement;
+    private boolean callsItself; // true if a tail call of the procedure jumps back to its entry
+
+    public IrBuilder(CommandLineOptions options) {
+        this.options = options;
+    }
+
+    public IrProgram buildIr(Program program, SymbolTable table) {
+        this.table = table;
+        this.program = new IrProgram();
+        program.declarations.stream().filter(x -> x instanceof ProcedureDeclaration).forEach(x -> {
+            x.accept(this);
+        });
+        return this.program;
+    }
+
+    private void emit(Instruction instruction) {
+        current.instructions.add(instruction);
+    }
+
+    /**
+     * Ends the current block with the given terminator and continues with the given block.
+     */
+    private void startBlock(Terminator terminator, BasicBlock next) {
+        current.terminator = terminator;
+        graph.blocks.add(next);
+        current = next;
+    }
+
+    /**
+     * @return A register holding the value of the expression.
+     */
+    private VirtualRegister value(Expression expression) {
+        expression.accept(this);
+        return result;
+    }
+
+    /**
+     * Evaluates the address of a variable. With --addressing, the constant part of the address is not added to the
+     * returned register, but left in {@link #displacement} to be used by the load or store accessing the variable.
+     *
+     * @return A register holding the address of the variable minus the displacement.
+     */
+    private VirtualRegister address(Variable variable) {
+        displacement = 0;
+        variable.accept(this);
+        return result;
+    }
+
+    /**
+     * @return A register holding the complete address of the variable.
+     */
+    private VirtualRegister fullAddress(Variable variable) {
+        VirtualRegister address = address(variable);
+        if (displacement == 0) return address;
+        VirtualRegister sum = graph.newRegister();
+        emit(new Instruction.Binary(Instruction.Binary.Operator.ADD, sum, address, new Immediate(displacement)));
+        return sum;
+    }
+
+    @Override
+    public void visit(ProcedureDeclaration procedureDeclaration) {
+        ProcedureEntry entry = (ProcedureEntry) table.lookup(procedureDeclaration.name);
+        SymbolTable globalTable = table;
+        table = entry.localTable;
+
+        graph = new ControlFlowGraph(procedureDeclaration.name, entry.stackLayout);
+        graph.isExported = entry.isExported;
+        entry.parameterTypes.forEach(x -> graph.parameters.put(x.offset, x));
+        current = graph.newBlock(-1);
+        graph.blocks.add(current);
+        callsItself = false;
+
+        procedureDeclaration.body.forEach(x -> x.accept(this));
+
+        current.terminator = new Terminator.Return();
+        List<Instruction> arguments = storeIncomingArguments(entry);
+        if (callsItself) {
+            // the recursion is a loop, which gets an entry in front of it to become a preheader, the recursion itself
+            // stores the arguments to their slots
+            BasicBlock preheader = graph.newBlock(-1);
+            preheader.instructions.addAll(arguments);
+            preheader.terminator = new Terminator.Jump(graph.entry());
+            graph.blocks.add(0, preheader);
+        } else {
+            graph.entry().instructions.addAll(0, arguments);
+        }
+        graph.analyze();
+        program.procedures.add(graph);
+        table = globalTable;
+    }
+
+    @Override
+    public void visit(CompoundStatement compoundStatement) {
+        compoundStatement.statements.forEach(x -> x.accept(this));
+    }
+
+    @Override
+    public void visit(IfStatement ifStatement) {
+        boolean hasElse = !(ifStatement.elsePart instanceof EmptyStatement);
+        BasicBlock thenBlock = graph.newBlock(-1);
+        BasicBlock elseBlock = hasElse ? graph.newBlock(program.newLabel()) : null;
+        BasicBlock endBlock = hasElse ? null : graph.newBlock(program.newLabel());
+
+        branch((BinaryExpression) ifStatement.condition, thenBlock, hasElse ? elseBlock : endBlock);
+        graph.blocks.add(thenBlock);
+        current = thenBlock;
+        ifStatement.thenPart.accept(this);
+
+        if (hasElse) {
+            endBlock = graph.newBlock(program.newLabel());
+            startBlock(new Terminator.Jump(endBlock), elseBlock);
+            ifStatement.elsePart.accept(this);
+        }
+        startBlock(new Terminator.Jump(endBlock), endBlock);
+    }
+
+    @Override
+    public void visit(WhileStatement whileStatement) {
+        if (options.loopInversion) {
+            // the condition is tested in front of the loop and at the end of the body, which jumps back to its start
+            BasicBlock body = graph.newBlock(program.newLabel());
+            BasicBlock endBlock = graph.newBlock(program.newLabel());
+
+            branch((BinaryExpression) whileStatement.condition, body, endBlock);
+            graph.blocks.add(body);
+            current = body;
+            whileStatement.body.accept(this);
+            branch((BinaryExpression) whileStatement.condition, body, endBlock);
+            graph.blocks.add(endBlock);
+            current = endBlock;
+            return;
+        }
+        BasicBlock header = graph.newBlock(program.newLabel());
+        BasicBlock endBlock = graph.newBlock(program.newLabel());
+        BasicBlock body = graph.newBlock(-1);
+
+        startBlock(new Terminator.Jump(header), header);
+        branch((BinaryExpression) whileStatement.condition, body, endBlock);
+        graph.blocks.add(body);
+        current = body;
+        whileStatement.body.accept(this);
+        startBlock(new Terminator.Jump(header), endBlock);
+    }
+
+    /**
+     * Evaluates a comparison and ends the current block with a branch depending on its outcome.
+     * The new current block is undefined afterwards.
+     */
+    private void branch(BinaryExpression condition, BasicBlock trueTarget, BasicBlock falseTarget) {
+        VirtualRegister[] operands = operands(condition);
+        Terminator.Branch.Condition comparison = switch (condition.operator) {
+            case EQU -> Terminator.Branch.Condition.EQ;
+            case NEQ -> Terminator.Branch.Condition.NE;
+            case LST -> Terminator.Branch.Condition.LT;
+            case LSE -> Terminator.Branch.Condition.LE;
+            case GRT -> Terminator.Branch.Condition.GT;
+            case GRE -> Terminator.Branch.Condition.GE;
+            default -> throw new IllegalStateException("Condition is not a comparison: " + condition.operator);
+        };
+        current.terminator = new Terminator.Branch(comparison, operands[0], operands[1], trueTarget, falseTarget);
+    }
+
+    /**
+     * Evaluates both operands of a binary expression, in the order given by their ershov numbers if --ershov is set.
+     *
+     * @return The registers holding the left and the right operand.
+     */
+    private VirtualRegister[] operands(BinaryExpression binaryExpression) {
+        Expression left = binaryExpression.leftOperand, right = binaryExpression.rightOperand;
+        if (options.ershovOptimization && right.ershovNumber > left.ershovNumber) {
+            VirtualRegister rop = value(right);
+            return new VirtualRegister[]{value(left), rop};
+        }
+        VirtualRegister lop = value(left);
+        return new VirtualRegister[]{lop, value(right)};
+    }
+
+    @Override
+    public void visit(EmptyStatement emptyStatement) {
+    }
+
+    @Override
+    public void visit(AssignStatement assignStatement) {
+        VirtualRegister target, value;
+        int offset;
+        if (options.ershovOptimization && assignStatement.value.ershovNumber > assignStatement.target.ershovNumber) {
+            value = value(assignStatement.value);
+            target = address(assignStatement.target);
+            offset = displacement;
+        } else {
+            target = address(assignStatement.target);
+            offset = displacement;
+            value = value(assignStatement.value);
+        }
+        emit(new Instruction.Store(value, target, offset));
+    }
+
+    /**
+     * @return The instructions storing the arguments passed in registers to their slots, which have to be executed
+     * at the entry of the procedure.
+     */
+    private List<Instruction> storeIncomingArguments(ProcedureEntry entry) {
+        List<Instruction> instructions = new ArrayList<>();
+        for (int i = 0; i < entry.parameterTypes.size(); i++) {
+            ParameterType parameter = entry.parameterTypes.get(i);
+            if (parameter.register == 0) continue;
+            VirtualRegister value = graph.newRegister();
+            VirtualRegister slot = graph.newRegister();
+            instructions.add(new Instruction.IncomingArgument(value, i, parameter.register));
+            instructions.add(new Instruction.FrameAddress(slot, parameter.offset));
+            instructions.add(new Instruction.Store(value, slot, 0));
+        }
+        return instructions;
+    }
+
+    @Override
+    public void visit(CallStatement callStatement) {
+        ProcedureEntry proc = (ProcedureEntry) table.lookup(callStatement.procedureName);
+        if (callStatement.isTailCall) {
+            tailCall(callStatement, proc);
+            return;
+        }
+        for (int i = 0; i < callStatement.arguments.size(); i++) {
+            Expression argument = callStatement.arguments.get(i);
+            ParameterType type = proc.parameterTypes.get(i);
+            VirtualRegister value = type.isReference ? fullAddress(((VariableExpression) argument).variable) : value(argument);
+            emit(new Instruction.StoreArgument(value, type.offset, i, type.register));
+        }
+        emit(new Instruction.Call(callStatement.procedureName.toString()));
+    }
+
+    /**
+     * Translates a tail call. All arguments are evaluated before any of them is stored into the argument area of this
+     * procedure, since they may still read the parameters they overwrite. A procedure calling itself jumps back to
+     * its entry, any other procedure is jumped to after the frame has been released. The arguments another procedure
+     * expects in registers are passed there.
+     */
+    private void tailCall(CallStatement callStatement, ProcedureEntry proc) {
+        boolean recursive = callStatement.procedureName.equals(graph.name);
+        List<VirtualRegister> values = new ArrayList<>();
+        for (int i = 0; i < callStatement.arguments.size(); i++) {
+            Expression argument = callStatement.arguments.get(i);
+            values.add(proc.parameterTypes.get(i).isReference ? fullAddress(((VariableExpression) argument).variable) : value(argument));
+        }
+        for (int i = 0; i < values.size(); i++) {
+            ParameterType type = proc.parameterTypes.get(i);
+            if (type.register != 0 && !recursive) {
+                emit(new Instruction.StoreArgument(values.get(i), type.offset, i, type.register));
+                continue;
+            }
+            VirtualRegister slot = graph.newRegister();
+            emit(new Instruction.FrameAddress(slot, type.offset));
+            emit(new Instruction.Store(values.get(i), slot, 0));
+        }
+
+        Terminator terminator;
+        if (recursive) {
+            callsItself = true;
+            terminator = new Terminator.Jump(graph.entry());
+        } else {
+            terminator = new Terminator.TailCall(callStatement.procedureName.toString());
+        }
+        startBlock(terminator, graph.newBlock(-1));
+    }
+
+    @Override
+    public void visit(BinaryExpression binaryExpression) {
+        Instruction.Binary.Operator operator = switch (binaryExpression.operator) {
+            case ADD -> Instruction.Binary.Operator.ADD;
+            case SUB -> Instruction.Binary.Operator.SUB;
+            case MUL -> Instruction.Binary.Operator.MUL;
+            case DIV -> Instruction.Binary.Operator.DIV;
+            default -> throw new IllegalStateException("Comparison outside of a condition: " + binaryExpression.operator);
+        };
+        if (options.immediateSelection) {
+            // a literal becomes an immediate operand, which has to be the right one
+            Expression left = binaryExpression.leftOperand, right = binaryExpression.rightOperand;
+            boolean commutative = operator == Instruction.Binary.Operator.ADD || operator == Instruction.Binary.Operator.MUL;
+            if (!isImmediate(right) && isImmediate(left) && commutative) {
+                left = binaryExpression.rightOperand;
+                right = binaryExpression.leftOperand;
+            }
+            if (isImmediate(right)) {
+                VirtualRegister operand = value(left);
+                result = graph.newRegister();
+                emit(new Instruction.Binary(operator, result, operand, new Immediate(((IntLiteral) right).value)));
+                return;
+            }
+        }
+        VirtualRegister[] operands = operands(binaryExpression);
+        result = graph.newRegister();
+        emit(new Instruction.Binary(operator, result, operands[0], operands[1]));
+    }
+
+    private static boolean isImmediate(Expression expression) {
+        return expression instanceof IntLiteral literal && Immediate.isEncodable(literal.value);
+    }
+
+    @Override
+    public void visit(UnaryExpression unaryExpression) {
+        VirtualRegister operand = value(unaryExpression.operand);
+        result = graph.newRegister();
+        emit(new Instruction.Negate(result, operand));
+    }
+
+    @Override
+    public void visit(IntLiteral intLiteral) {
+        result = graph.newRegister();
+        emit(new Instruction.LoadImmediate(result, intLiteral.value));
+    }
+
+    @Override
+    public void visit(VariableExpression variableExpression) {
+        VirtualRegister address = address(variableExpression.variable);
+        result = graph.newRegister();
+        emit(new Instruction.Load(result, address, displacement));
+    }
+
+    @Override
+    public void visit(NamedVariable namedVariable) {
+        VariableEntry entry = (VariableEntry) table.lookup(namedVariable.name);
+        result = graph.newRegister();
+        emit(new Instruction.FrameAddress(result, entry.offset));
+        if (entry.isReference) {
+            VirtualRegister slot = result;
+            result = graph.newRegister();
+            emit(new Instruction.Load(result, slot, 0));
+        }
+    }
+
+    @Override
+    public void visit(FieldAccess fieldAccess) {
+        RecordType type = (RecordType) fieldAccess.variable.dataType;
+        VirtualRegister record = address(fieldAccess.variable);
+
+        int offset = type.field(fieldAccess.field).offset();
+
+        result = record;
+        if (options.addressFolding) {
+            displacement += offset;
+        } else if (offset != 0) {
+            result = graph.newRegister();
+            emit(new Instruction.Binary(Instruction.Binary.Operator.ADD, result, record, new Immediate(offset)));
+        }
+    }
+
+    @Override
+    public void visit(ArrayAccess arrayAccess) {
+        if (options.arrayFlattening && ArrayAccesses.hasElements(arrayAccess)) {
+            flattenedAccess(ArrayAccesses.levels(arrayAccess));
+            return;
+        }
+
+        ArrayType type = (ArrayType) arrayAccess.array.dataType;
+        VirtualRegister array, index, size;
+        int offset;
+
+        if (options.ershovOptimization && ErshovNumbering.isIndexFirst(arrayAccess)) {
+            index = value(arrayAccess.index);
+            size = graph.newRegister();
+            emit(new Instruction.LoadImmediate(size, type.arraySize));
+            emit(new Instruction.CheckIndex(index, size));
+            array = address(arrayAccess.array);
+            offset = displacement;
+        } else {
+            array = address(arrayAccess.array);
+            offset = displacement;
+            index = value(arrayAccess.index);
+            size = graph.newRegister();
+            emit(new Instruction.LoadImmediate(size, type.arraySize));
+            emit(new Instruction.CheckIndex(index, size));
+        }
+
+        VirtualRegister scaled = graph.newRegister();
+        emit(new Instruction.Binary(Instruction.Binary.Operator.MUL, scaled, index, new Immediate(type.baseType.byteSize)));
+        result = graph.newRegister();
+        emit(new Instruction.Binary(Instruction.Binary.Operator.ADD, result, array, scaled));
+        displacement = offset;
+    }
+
+    /**
+     * Translates nested array accesses into a single address computation. The indices are combined with the Horner
+     * scheme: the sum of the indices so far is multiplied by the size of the next dimension, before the next index is
+     * added. The sum is scaled to bytes once and added to the address of the array. A literal index within bounds
+     * becomes part of the displacement. The other indices are checked together after all of them have been evaluated,
+     * unless the evaluation of a later index may fail with a division by zero before an earlier index is checked.
+     */
+    private void flattenedAccess(List<ArrayAccess> levels) {
+        VirtualRegister array = address(levels.get(0).array);
+        int offset = displacement;
+
+        List<ArrayAccess> checked = new ArrayList<>();
+        List<VirtualRegister> indices = new ArrayList<>();
+        boolean batched = levels.stream().noneMatch(x -> divides(x.index));
+        for (ArrayAccess level : levels) {
+            ArrayType type = (ArrayType) level.array.dataType;
+            if (ArrayAccesses.isIndexInBounds(level)) {
+                offset += ((IntLiteral) level.index).value * type.baseType.byteSize;
+            } else {
+                checked.add(level);
+                indices.add(value(level.index));
+                if (!batched) checkIndex(indices.get(indices.size() - 1), type.arraySize);
+            }
+        }
+        if (batched)
+            for (int i = 0; i < checked.size(); i++)
+                checkIndex(indices.get(i), ((ArrayType) checked.get(i).array.dataType).arraySize);
+
+        VirtualRegister sum = null;
+        int elementSize = 0; // the size of the elements counted by the sum
+        for (int i = 0; i < checked.size(); i++) {
+            int size = ((ArrayType) checked.get(i).array.dataType).baseType.byteSize;
+            if (sum == null) {
+                sum = indices.get(i);
+            } else {
+                VirtualRegister scaled = scale(sum, elementSize / size);
+                sum = graph.newRegister();
+                emit(new Instruction.Binary(Instruction.Binary.Operator.ADD, sum, scaled, indices.get(i)));
+            }
+            elementSize = size;
+        }
+        if (sum != null) sum = scale(sum, elementSize);
+
+        result = array;
+        if (sum != null) {
+            result = graph.newRegister();
+            emit(new Instruction.Binary(Instruction.Binary.Operator.ADD, result, array, sum));
+        }
+        displacement = 0;
+        if (options.addressFolding) {
+            displacement = offset;
+        } else if (offset != 0) {
+            VirtualRegister address = result;
+            result = graph.newRegister();
+            emit(new Instruction.Binary(Instruction.Binary.Operator.ADD, result, address, new Immediate(offset)));
+        }
+    }
+
+    private void checkIndex(VirtualRegister index, int arraySize) {
+        VirtualRegister size = graph.newRegister();
+        emit(new Instruction.LoadImmediate(size, arraySize));
+        emit(new Instruction.CheckIndex(index, size));
+    }
+
+    /**
+     * @return true if evaluating the node contains a division.
+     */
+    private static boolean divides(Node node) {
+        if (node instanceof BinaryExpression binaryExpression)
+            return binaryExpression.operator == BinaryExpression.Operator.DIV
+                    || divides(binaryExpression.leftOperand) || divides(binaryExpression.rightOperand);
+        if (node instanceof UnaryExpression unaryExpression)
+            return divides(unaryExpression.operand);
+        if (node instanceof VariableExpression variableExpression)
+            return divides(variableExpression.variable);
+        if (node instanceof FieldAccess fieldAccess)
+            return divides(fieldAccess.variable);
+        if (node instanceof ArrayAccess arrayAccess)
+            return divides(arrayAccess.array) || divides(arrayAccess.index);
+        return false;
+    }
+
+    /**
+     * @return A register holding the product of a register and a constant factor, computed by a shift if the factor
+     * is a power of two.
+     */
+    private VirtualRegister scale(VirtualRegister register, int factor) {
+        if (factor == 1) return register;
+        VirtualRegister scaled = graph.newRegister();
+        if (Integer.bitCount(factor) == 1)
+            emit(new Instruction.Binary(Instruction.Binary.Operator.SLL, scaled, register, new Immediate(Integer.numberOfTrailingZeros(factor))));
+        else
+            emit(new Instruction.Binary(Instruction.Binary.Operator.MUL, scaled, register, new Immediate(factor)));
+        return scaled;
+    }
+}
@@ -0,0 +1,34 @@
+package de.thm.mni.compilerbau.phases._05b_ir;
+
+import de.thm.mni.compilerbau.CommandLineOptions;
+
+/**
+ * This class runs the optimizations of the intermediate representation enabled by the command line options.
+ * The control-flow graph of every procedure is analyzed again after it has been transformed.
+ */
+public class IrOptimizer {
+    private final CommandLineOptions options;
+
+    public IrOptimizer(CommandLineOptions options) {
+        this.options = options;
+    }
+
+    public void optimize(IrProgram program) {
+        for (ControlFlowGraph graph : program.procedures) {
+            if (options.registerAllocation)
+                new ScalarPromotion().promote(graph);
+            graph.analyze();
+
+            if (options.valueNumbering)
+                new LocalValueNumbering().number(graph);
+            if (options.boundsCheckElimination)
+                new BoundsCheckElimination().eliminate(graph);
+            if (options.strengthReduction)
+                new StrengthReduction().reduce(graph);
+            if (options.loopInvariantCodeMotion)
+                new LoopInvariantCodeMotion().hoist(graph);
+            if (options.deadCodeElimination)
+                new DeadCodeElimination().eliminate(graph);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package de.thm.mni.compilerbau.phases._05b_ir;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class represents a whole SPL program in the intermediate representation.
+ * It holds the control-flow graphs of all procedures and hands out the labels, which are unique in the whole program.
+ */
+public class IrProgram {
+    public final List<ControlFlowGraph> procedures = new ArrayList<>();
+    private int labelCount = 0;
+
+    public int newLabel() {
+        return labelCount++;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        procedures.forEach(procedure -> builder.append(procedure).append('\n'));
+        return builder.toString();
+    }
+}
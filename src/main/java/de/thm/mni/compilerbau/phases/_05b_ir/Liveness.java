@@ -0,0 +1,92 @@
+package de.thm.mni.compilerbau.phases._05b_ir;
+
+import java.util.*;
+
+/**
+ * This class calculates which virtual registers are live at the borders of the blocks of a {@link ControlFlowGraph}.
+ * A register is live at a point, if its value may be used afterwards before it is redefined.
+ * <p>
+ * The sets are represented as {@link BitSet}s indexed by the number of the registers.
+ */
+public class Liveness {
+    private final Map<BasicBlock, BitSet> liveIn = new HashMap<>();
+    private final Map<BasicBlock, BitSet> liveOut = new HashMap<>();
+
+    public Liveness(ControlFlowGraph graph) {
+        Map<BasicBlock, BitSet> uses = new HashMap<>(), definitions = new HashMap<>();
+        for (BasicBlock block : graph.blocks) {
+            BitSet used = new BitSet(), defined = new BitSet();
+            for (Instruction instruction : instructions(block)) {
+                for (VirtualRegister register : instruction.used())
+                    if (!defined.get(register.number)) used.set(register.number);
+                if (instruction.defined() != null)
+                    defined.set(instruction.defined().number);
+            }
+            uses.put(block, used);
+            definitions.put(block, defined);
+            liveIn.put(block, new BitSet());
+            liveOut.put(block, new BitSet());
+        }
+
+        // iterate in postorder, so that most information flows backwards in a single pass
+        List<BasicBlock> order = graph.reversePostorder();
+        Collections.reverse(order);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (BasicBlock block : order) {
+                BitSet out = new BitSet();
+                for (BasicBlock successor : block.successors())
+                    out.or(liveIn.get(successor));
+
+                BitSet in = (BitSet) out.clone();
+                in.andNot(definitions.get(block));
+                in.or(uses.get(block));
+
+                liveOut.put(block, out);
+                if (!in.equals(liveIn.get(block))) {
+                    liveIn.put(block, in);
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The instructions of the block followed by its terminator.
+     */
+    public static List<Instruction> instructions(BasicBlock block) {
+        List<Instruction> instructions = new ArrayList<>(block.instructions);
+        instructions.add(block.terminator);
+        return instructions;
+    }
+
+    public BitSet liveIn(BasicBlock block) {
+        return liveIn.get(block);
+    }
+
+    public BitSet liveOut(BasicBlock block) {
+        return liveOut.get(block);
+    }
+
+    /**
+     * Calculates the registers live after each instruction of a block, by walking backwards from its end.
+     *
+     * @param block The block to analyze.
+     * @return The registers live after the instruction at the same index, the last entry belongs to the terminator.
+     */
+    public List<BitSet> liveAfter(BasicBlock block) {
+        List<Instruction> instructions = instructions(block);
+        BitSet[] result = new BitSet[instructions.size()];
+        BitSet live = (BitSet) liveOut(block).clone();
+        for (int i = instructions.size() - 1; i >= 0; i--) {
+            result[i] = (BitSet) live.clone();
+            Instruction instruction = instructions.get(i);
+            if (instruction.defined() != null)
+                live.clear(instruction.defined().number);
+            for (VirtualRegister register : instruction.used())
+                live.set(register.number);
+        }
+        return Arrays.asList(result);
+    }
+}
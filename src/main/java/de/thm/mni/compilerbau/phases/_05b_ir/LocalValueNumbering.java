@@ -0,0 +1,197 @@
+package de.thm.mni.compilerbau.phases._05b_ir;
+
+import java.util.*;
+
+/**
+ * This class removes computations inside of a block, whose result has already been computed earlier in the block.
+ * <p>
+ * Every value computed in a block is given a number, registers holding the same value share the same number. A
+ * computation is identified by its operation and the numbers of its operands, so that a computation already made is
+ * recognized even if its operands are held by different registers. Its result is then copied from the register
+ * holding it instead. If both registers are defined only once in the procedure, the copy is removed by using the
+ * earlier register in place of the later one everywhere. This is only done if the copy is not live at the start of
+ * its block, as in a loop a use in front of the copy would read the value of the previous iteration, while the
+ * earlier register already holds the one of the current iteration.
+ * <p>
+ * Loads are computations as well, which are invalidated by every store, which may write the loaded memory. The value
+ * written by a store is remembered as the result of loading the same address afterwards. A second check of the same
+ * index against the same size is removed completely.
+ * <p>
+ * No value is reused after a call. Besides invalidating all loads, the call would require every reused register to be
+ * saved and restored around it, as all registers are saved by the caller.
+ */
+public class LocalValueNumbering {
+    private enum Operation {CONSTANT, FRAME_ADDRESS, LOAD, NEGATE, CHECK}
+
+    /**
+     * A computation, identified by its operation and the value numbers of its operands. The right operand is stored
+     * as it is, if it is immediate, like an offset or a constant.
+     */
+    private record Expression(Object operation, int left, int right, boolean immediate) {
+    }
+
+    /**
+     * The register a value has been computed into and its number.
+     */
+    private record Value(VirtualRegister register, int number) {
+    }
+
+    private final Map<VirtualRegister, Integer> numbers = new HashMap<>();
+    private final Map<Expression, Value> available = new HashMap<>();
+    private final Set<Expression> checks = new HashSet<>();
+    private final Map<Integer, Integer> frameOffsets = new HashMap<>(); // value numbers of frame addresses
+    private final Map<VirtualRegister, VirtualRegister> copies = new HashMap<>();
+    private final Map<VirtualRegister, BasicBlock> copyBlocks = new HashMap<>();
+    private BasicBlock block;
+    private final Map<VirtualRegister, Integer> definitions = new HashMap<>();
+    private int nextNumber = 0;
+
+    /**
+     * Removes the redundant computations of all blocks of a procedure.
+     *
+     * @param graph The procedure to transform.
+     * @return The number of removed instructions.
+     */
+    public int number(ControlFlowGraph graph) {
+        for (BasicBlock block : graph.blocks)
+            for (Instruction instruction : block.instructions)
+                if (instruction.defined() != null) definitions.merge(instruction.defined(), 1, Integer::sum);
+
+        int removed = 0;
+        for (BasicBlock block : graph.blocks) {
+            this.block = block;
+            numbers.clear();
+            available.clear();
+            checks.clear();
+            frameOffsets.clear();
+
+            List<Instruction> numbered = new ArrayList<>();
+            for (Instruction instruction : block.instructions) {
+                Instruction replacement = number(instruction);
+                if (replacement != null) numbered.add(replacement);
+                if (replacement != instruction) removed++;
+            }
+            block.instructions.clear();
+            block.instructions.addAll(numbered);
+        }
+        removeCopies(graph);
+        return removed;
+    }
+
+    /**
+     * @return The value number of the value a register holds at the current point of the block.
+     */
+    private int valueOf(VirtualRegister register) {
+        return numbers.computeIfAbsent(register, r -> nextNumber++);
+    }
+
+    /**
+     * Numbers the value computed by an instruction.
+     *
+     * @return The instruction to keep in its place, which is a copy if the value is available already, or null if the
+     * instruction can be dropped.
+     */
+    private Instruction number(Instruction instruction) {
+        if (instruction instanceof Instruction.Move move) {
+            numbers.put(move.destination, valueOf(move.source));
+            return instruction;
+        }
+        if (instruction instanceof Instruction.Store store) {
+            invalidateLoads(store.address, store.offset);
+            available.put(new Expression(Operation.LOAD, valueOf(store.address), store.offset, true),
+                    new Value(store.value, valueOf(store.value)));
+            return instruction;
+        }
+        if (instruction instanceof Instruction.Call) {
+            available.clear();
+            return instruction;
+        }
+        if (instruction instanceof Instruction.CheckIndex check)
+            return checks.add(new Expression(Operation.CHECK, valueOf(check.index), valueOf(check.size), false)) ? instruction : null;
+
+        Expression expression = expressionOf(instruction);
+        VirtualRegister destination = instruction.defined();
+        if (expression == null) {
+            if (destination != null) numbers.put(destination, nextNumber++);
+            return instruction;
+        }
+
+        // the register the value has been computed into may have been redefined meanwhile
+        Value value = available.get(expression);
+        if (value != null && numbers.getOrDefault(value.register, -1) == value.number && value.register != destination) {
+            numbers.put(destination, value.number);
+            if (definitions.get(destination) == 1 && definitions.getOrDefault(value.register, 0) == 1) {
+                copies.put(destination, value.register);
+                copyBlocks.put(destination, block);
+            }
+            return new Instruction.Move(destination, value.register);
+        }
+
+        int number = nextNumber++;
+        numbers.put(destination, number);
+        available.put(expression, new Value(destination, number));
+        if (instruction instanceof Instruction.FrameAddress address) frameOffsets.put(number, address.offset);
+        return instruction;
+    }
+
+    /**
+     * @return The computation of an instruction without side effects or null, if it is not numbered.
+     */
+    private Expression expressionOf(Instruction instruction) {
+        if (instruction instanceof Instruction.LoadImmediate load)
+            return new Expression(Operation.CONSTANT, 0, load.value, true);
+        if (instruction instanceof Instruction.FrameAddress address)
+            return new Expression(Operation.FRAME_ADDRESS, 0, address.offset, true);
+        if (instruction instanceof Instruction.Load load)
+            return new Expression(Operation.LOAD, valueOf(load.address), load.offset, true);
+        if (instruction instanceof Instruction.Negate negate)
+            return new Expression(Operation.NEGATE, valueOf(negate.operand), 0, true);
+        if (instruction instanceof Instruction.Binary binary) {
+            int left = valueOf(binary.left);
+            if (binary.right instanceof Immediate immediate)
+                return new Expression(binary.operator, left, immediate.value, true);
+            int right = valueOf((VirtualRegister) binary.right);
+            boolean commutative = binary.operator == Instruction.Binary.Operator.ADD || binary.operator == Instruction.Binary.Operator.MUL;
+            return commutative && right < left
+                    ? new Expression(binary.operator, right, left, false)
+                    : new Expression(binary.operator, left, right, false);
+        }
+        return null;
+    }
+
+    /**
+     * Forgets the loads, which may read the memory written by a store. Two accesses only differ for sure, if both are
+     * made relative to a frame address and access different slots.
+     */
+    private void invalidateLoads(VirtualRegister address, int offset) {
+        Integer frameOffset = frameOffsets.get(valueOf(address));
+        available.keySet().removeIf(expression -> {
+            if (expression.operation != Operation.LOAD) return false;
+            Integer loadedFrameOffset = frameOffsets.get(expression.left);
+            return frameOffset == null || loadedFrameOffset == null || frameOffset + offset == loadedFrameOffset + expression.right;
+        });
+    }
+
+    /**
+     * Uses the register holding a value in place of a copy of it, if both are defined only once. As the copy is made in
+     * the block the value has been computed in, the original register is defined wherever the copy is used. A copy
+     * live at the start of its block is kept, since the original register is redefined before the copy there.
+     */
+    private void removeCopies(ControlFlowGraph graph) {
+        if (copies.isEmpty()) return;
+        Liveness liveness = new Liveness(graph);
+        copies.keySet().removeIf(copy -> liveness.liveIn(copyBlocks.get(copy)).get(copy.number));
+        if (copies.isEmpty()) return;
+        for (BasicBlock block : graph.blocks) {
+            block.instructions.removeIf(instruction -> instruction instanceof Instruction.Move move && copies.containsKey(move.destination));
+            for (Instruction instruction : Liveness.instructions(block))
+                for (VirtualRegister used : instruction.used())
+                    if (copies.containsKey(used)) instruction.replaceUse(used, original(used));
+        }
+    }
+
+    private VirtualRegister original(VirtualRegister register) {
+        while (copies.containsKey(register)) register = copies.get(register);
+        return register;
+    }
+}
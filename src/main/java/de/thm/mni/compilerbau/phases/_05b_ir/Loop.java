@@ -0,0 +1,40 @@
+package de.thm.mni.compilerbau.phases._05b_ir;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * This class represents a natural loop in a {@link ControlFlowGraph}.
+ * A natural loop consists of a header dominating all blocks of the loop and all blocks which can reach a back edge
+ * to the header without passing the header. Loops are either disjoint or nested into each other.
+ */
+public class Loop {
+    public final BasicBlock header;
+    public final Set<BasicBlock> blocks = new LinkedHashSet<>();
+    public Loop parent = null;
+    public final List<Loop> children = new ArrayList<>();
+    public int depth = 1;
+
+    Loop(BasicBlock header) {
+        this.header = header;
+        blocks.add(header);
+    }
+
+    public boolean contains(BasicBlock block) {
+        return blocks.contains(block);
+    }
+
+    /**
+     * @return The blocks outside of the loop, which are successors of blocks inside of the loop.
+     */
+    public Set<BasicBlock> exits() {
+        Set<BasicBlock> exits = new LinkedHashSet<>();
+        for (BasicBlock block : blocks)
+            for (BasicBlock successor : block.successors())
+                if (!contains(successor))
+                    exits.add(successor);
+        return exits;
+    }
+}
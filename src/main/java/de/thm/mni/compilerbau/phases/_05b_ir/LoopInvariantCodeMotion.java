@@ -0,0 +1,151 @@
+package de.thm.mni.compilerbau.phases._05b_ir;
+
+import java.util.*;
+
+/**
+ * This class moves computations, whose result is the same in every iteration of a loop, in front of the loop.
+ * <p>
+ * The computations are moved into the preheader of the loop, a block which is executed once before the loop is
+ * entered. If the loop header has more than one predecessor outside of the loop, a new block is inserted for this.
+ * Loops are processed from the inside out, so that a computation can leave several loops.
+ * <p>
+ * An instruction is invariant, if it has no side effects, cannot raise an error and all registers it uses are defined
+ * outside of the loop or by another invariant instruction. Since the instruction is executed even if the loop is left
+ * before reaching it, the register it defines must not be defined anywhere else in the loop and must not be live at
+ * the loop header. Loads are only moved if they read a frame slot whose address is never taken and which is not
+ * stored in the loop. Such a slot cannot be changed by a call or through a reference, like the pointer of a reference
+ * parameter.
+ * <p>
+ * Loops containing a call are left unchanged. As all registers are saved by the caller, a moved value would have to be
+ * saved and restored around every call in the loop, which is more expensive than computing it again.
+ */
+public class LoopInvariantCodeMotion {
+    private ControlFlowGraph graph;
+    private final Map<VirtualRegister, Integer> frameAddresses = new HashMap<>();
+    private final Set<Integer> escaping = new HashSet<>();
+
+    /**
+     * Moves the invariant computations of all loops of a procedure. The graph has to be analyzed and is analyzed
+     * again afterwards.
+     *
+     * @param graph The procedure to transform.
+     */
+    public void hoist(ControlFlowGraph graph) {
+        this.graph = graph;
+        findFrameAddresses();
+
+        List<BasicBlock> headers = new ArrayList<>();
+        graph.loops.forEach(loop -> headers.add(loop.header));
+        Collections.reverse(headers); // inner loops first
+
+        for (BasicBlock header : headers) {
+            graph.analyze();
+            if (header.loop == null || header.loop.header != header || header == graph.entry()) continue;
+            hoist(header.loop);
+        }
+        graph.analyze();
+    }
+
+    private void findFrameAddresses() {
+        for (BasicBlock block : graph.blocks)
+            for (Instruction instruction : block.instructions)
+                if (instruction instanceof Instruction.FrameAddress address)
+                    frameAddresses.put(address.destination, address.offset);
+
+        for (BasicBlock block : graph.blocks)
+            for (Instruction instruction : Liveness.instructions(block))
+                for (VirtualRegister used : instruction.used())
+                    if (frameAddresses.containsKey(used) && !isSlotAccess(instruction, used))
+                        escaping.add(frameAddresses.get(used));
+    }
+
+    private static boolean isSlotAccess(Instruction instruction, VirtualRegister address) {
+        if (instruction instanceof Instruction.Load load) return load.address == address;
+        if (instruction instanceof Instruction.Store store) return store.address == address && store.value != address;
+        return false;
+    }
+
+    private void hoist(Loop loop) {
+        for (BasicBlock block : loop.blocks)
+            if (block.instructions.stream().anyMatch(instruction -> instruction instanceof Instruction.Call)) return;
+
+        Liveness liveness = new Liveness(graph);
+        BitSet liveAtHeader = liveness.liveIn(loop.header);
+
+        List<BasicBlock> blocks = new ArrayList<>(graph.reversePostorder());
+        blocks.retainAll(loop.blocks);
+
+        Map<VirtualRegister, Integer> definitions = new HashMap<>();
+        Set<Integer> storedSlots = new HashSet<>();
+        for (BasicBlock block : blocks)
+            for (Instruction instruction : block.instructions) {
+                if (instruction.defined() != null) definitions.merge(instruction.defined(), 1, Integer::sum);
+                if (instruction instanceof Instruction.Store store && frameAddresses.containsKey(store.address))
+                    storedSlots.add(frameAddresses.get(store.address) + store.offset);
+            }
+
+        // find the invariant instructions until no more are found
+        Set<Instruction> invariant = new LinkedHashSet<>();
+        Set<VirtualRegister> invariantRegisters = new HashSet<>();
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (BasicBlock block : blocks)
+                for (Instruction instruction : block.instructions) {
+                    if (invariant.contains(instruction) || !canBeMoved(instruction, storedSlots)) continue;
+                    VirtualRegister defined = instruction.defined();
+                    if (definitions.get(defined) != 1 || liveAtHeader.get(defined.number)) continue;
+                    if (!instruction.used().stream().allMatch(used -> !definitions.containsKey(used) || invariantRegisters.contains(used)))
+                        continue;
+                    invariant.add(instruction);
+                    invariantRegisters.add(defined);
+                    changed = true;
+                }
+        }
+
+        // constants are only worth a register across the loop, if they are used by another moved computation
+        Set<VirtualRegister> usedByMoved = new HashSet<>();
+        invariant.stream().filter(instruction -> !(instruction instanceof Instruction.LoadImmediate))
+                .forEach(instruction -> usedByMoved.addAll(instruction.used()));
+        invariant.removeIf(instruction -> instruction instanceof Instruction.LoadImmediate && !usedByMoved.contains(instruction.defined()));
+        if (invariant.isEmpty()) return;
+
+        BasicBlock preheader = preheader(loop);
+        for (BasicBlock block : blocks) {
+            for (Instruction instruction : block.instructions)
+                if (invariant.contains(instruction)) preheader.instructions.add(instruction);
+            block.instructions.removeIf(invariant::contains);
+        }
+    }
+
+    private boolean canBeMoved(Instruction instruction, Set<Integer> storedSlots) {
+        if (instruction instanceof Instruction.LoadImmediate || instruction instanceof Instruction.FrameAddress
+                || instruction instanceof Instruction.Move || instruction instanceof Instruction.Negate)
+            return true;
+        if (instruction instanceof Instruction.Binary binary)
+            return binary.operator != Instruction.Binary.Operator.DIV
+                    || binary.right instanceof Immediate immediate && immediate.value != 0;
+        if (instruction instanceof Instruction.Load load && frameAddresses.containsKey(load.address)) {
+            int slot = frameAddresses.get(load.address);
+            return !escaping.contains(slot) && !storedSlots.contains(slot + load.offset);
+        }
+        return false;
+    }
+
+    /**
+     * Returns the block executed directly before the loop is entered, which is created if necessary.
+     */
+    private BasicBlock preheader(Loop loop) {
+        List<BasicBlock> entries = new ArrayList<>();
+        for (BasicBlock predecessor : loop.header.predecessors)
+            if (!loop.contains(predecessor)) entries.add(predecessor);
+        if (entries.size() == 1 && entries.get(0).successors().size() == 1)
+            return entries.get(0);
+
+        BasicBlock preheader = graph.newBlock(-1);
+        preheader.terminator = new Terminator.Jump(loop.header);
+        entries.forEach(entry -> entry.terminator.replaceSuccessor(loop.header, preheader));
+        graph.blocks.add(graph.blocks.indexOf(loop.header), preheader);
+        return preheader;
+    }
+}
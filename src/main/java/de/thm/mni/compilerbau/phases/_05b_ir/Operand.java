@@ -0,0 +1,8 @@
+package de.thm.mni.compilerbau.phases._05b_ir;
+
+/**
+ * This interface describes an operand of an instruction in the intermediate representation.
+ * An operand is either a {@link VirtualRegister} or an {@link Immediate} value.
+ */
+public sealed interface Operand permits VirtualRegister, Immediate {
+}
@@ -0,0 +1,236 @@
+package de.thm.mni.compilerbau.phases._05b_ir;
+
+import java.util.*;
+
+/**
+ * This class promotes scalar local variables and parameters of a procedure into virtual registers.
+ * <p>
+ * A frame slot can be promoted, if its address is only used to load or store the slot itself, i.e. the variable is
+ * neither an array or record accessed by computed addresses nor passed as a reference argument. The loads and stores
+ * of such a slot are replaced by moves from and to a single register representing the variable for the whole
+ * procedure, which the register allocator keeps in a physical register as long as possible. The slot stays the home
+ * of the variable, whenever it has to be kept in memory.
+ * <p>
+ * A promoted parameter is loaded from its slot once at the entry of the procedure. As a tail call passes its arguments
+ * in the parameter slots, every parameter assigned in the procedure is written back to its slot in front of it.
+ * The slot of a reference parameter holds the address of the argument, which can never be changed in SPL. Promoting
+ * it keeps the address in a register, instead of loading it again for every access of the parameter.
+ * <p>
+ * An argument passed in a register with --regArgs is received into the register of its parameter directly. If the
+ * parameter is never assigned and is live across a call, it is stored to its slot once at the entry, so that it never
+ * has to be saved across a call.
+ */
+public class ScalarPromotion {
+
+    /**
+     * Promotes all promotable local variables of a procedure.
+     *
+     * @param graph The procedure to transform.
+     */
+    public void promote(ControlFlowGraph graph) {
+        Map<VirtualRegister, Integer> addresses = new HashMap<>();
+        for (BasicBlock block : graph.blocks)
+            for (Instruction instruction : block.instructions)
+                if (instruction instanceof Instruction.FrameAddress)
+                    addresses.put(instruction.defined(), ((Instruction.FrameAddress) instruction).offset);
+
+        Set<Integer> escaping = new HashSet<>();
+        for (BasicBlock block : graph.blocks)
+            for (Instruction instruction : Liveness.instructions(block))
+                for (VirtualRegister used : instruction.used())
+                    if (addresses.containsKey(used) && !accessesSlot(instruction, used))
+                        escaping.add(addresses.get(used));
+
+        Map<Integer, VirtualRegister> variables = new TreeMap<>();
+        for (int offset : addresses.values()) {
+            if (escaping.contains(offset) || !isPromotable(graph, offset) || variables.containsKey(offset)) continue;
+            VirtualRegister variable = graph.newRegister();
+            variables.put(offset, variable);
+            graph.homeSlots.put(variable, offset);
+        }
+        if (variables.isEmpty()) return;
+
+        Map<VirtualRegister, Integer> useCount = new HashMap<>();
+        for (BasicBlock block : graph.blocks)
+            for (Instruction instruction : Liveness.instructions(block))
+                for (VirtualRegister used : instruction.used())
+                    useCount.merge(used, 1, Integer::sum);
+
+        for (BasicBlock block : graph.blocks) {
+            List<Instruction> rewritten = new ArrayList<>();
+            for (Instruction instruction : block.instructions) {
+                if (instruction instanceof Instruction.FrameAddress && variables.containsKey(((Instruction.FrameAddress) instruction).offset))
+                    continue;
+                if (instruction instanceof Instruction.Load && addresses.containsKey(((Instruction.Load) instruction).address)) {
+                    VirtualRegister variable = variables.get(addresses.get(((Instruction.Load) instruction).address));
+                    if (variable != null) {
+                        rewritten.add(new Instruction.Move(instruction.defined(), variable));
+                        continue;
+                    }
+                }
+                if (instruction instanceof Instruction.Store && addresses.containsKey(((Instruction.Store) instruction).address)) {
+                    VirtualRegister variable = variables.get(addresses.get(((Instruction.Store) instruction).address));
+                    if (variable != null) {
+                        rewritten.add(new Instruction.Move(variable, ((Instruction.Store) instruction).value));
+                        continue;
+                    }
+                }
+                rewritten.add(instruction);
+            }
+            block.instructions.clear();
+            block.instructions.addAll(rewritten);
+
+            propagateCopies(block, useCount, graph.homeSlots.keySet());
+        }
+
+        Map<Integer, VirtualRegister> parameters = new TreeMap<>(variables);
+        parameters.keySet().removeIf(offset -> !graph.parameters.containsKey(offset));
+        if (!parameters.isEmpty()) initializeParameters(graph, parameters);
+    }
+
+    /**
+     * @return true if the procedure may keep the variable at the given frame offset in a register.
+     */
+    protected boolean isPromotable(ControlFlowGraph graph, int offset) {
+        return offset < 0 || graph.parameters.containsKey(offset);
+    }
+
+    /**
+     * Loads the promoted parameters, which are read before they are assigned, at the entry of the procedure and writes
+     * the assigned parameters back in front of every tail call.
+     */
+    private static void initializeParameters(ControlFlowGraph graph, Map<Integer, VirtualRegister> parameters) {
+        Map<VirtualRegister, Integer> definitions = new HashMap<>();
+        for (BasicBlock block : graph.blocks)
+            for (Instruction instruction : block.instructions)
+                if (instruction.defined() != null) definitions.merge(instruction.defined(), 1, Integer::sum);
+        Set<VirtualRegister> assigned = definitions.keySet();
+
+        Map<Integer, VirtualRegister> passedInRegisters = new TreeMap<>(parameters);
+        passedInRegisters.keySet().removeIf(offset -> graph.parameters.get(offset).register == 0);
+        parameters.keySet().removeAll(passedInRegisters.keySet());
+        storeUnchangedArguments(graph, passedInRegisters, definitions);
+        if (parameters.isEmpty()) return;
+
+        for (BasicBlock block : graph.blocks) {
+            if (!(block.terminator instanceof Terminator.TailCall)) continue;
+            parameters.forEach((offset, parameter) -> {
+                if (assigned.contains(parameter)) storeSlot(graph, block.instructions, offset, parameter);
+            });
+        }
+        parameters.values().stream().filter(x -> !assigned.contains(x)).forEach(graph.unchangedHomes::add);
+
+        Liveness liveness = new Liveness(graph);
+        BitSet live = liveness.liveIn(graph.entry());
+        List<Instruction> loads = new ArrayList<>();
+        parameters.forEach((offset, parameter) -> {
+            if (!live.get(parameter.number)) return;
+            VirtualRegister address = graph.newRegister();
+            loads.add(new Instruction.FrameAddress(address, offset));
+            loads.add(new Instruction.Load(parameter, address, 0));
+        });
+
+        // the loads must not be repeated by a loop starting at the entry
+        BasicBlock entry = graph.entry();
+        if (!entry.predecessors.isEmpty()) {
+            entry = graph.newBlock(-1);
+            entry.terminator = new Terminator.Jump(graph.entry());
+            graph.blocks.add(0, entry);
+        }
+        entry.instructions.addAll(0, loads);
+    }
+
+    /**
+     * Stores the arguments passed in registers, whose parameters are defined only by receiving them and are live
+     * across a call, to their slots.
+     */
+    private static void storeUnchangedArguments(ControlFlowGraph graph, Map<Integer, VirtualRegister> parameters, Map<VirtualRegister, Integer> definitions) {
+        if (parameters.isEmpty()) return;
+        Liveness liveness = new Liveness(graph);
+        BitSet liveAcrossCall = new BitSet();
+        for (BasicBlock block : graph.blocks) {
+            List<Instruction> instructions = Liveness.instructions(block);
+            List<BitSet> liveAfter = liveness.liveAfter(block);
+            for (int i = 0; i < instructions.size(); i++)
+                if (instructions.get(i) instanceof Instruction.Call) liveAcrossCall.or(liveAfter.get(i));
+        }
+
+        parameters.forEach((offset, parameter) -> {
+            if (definitions.get(parameter) != 1 || !liveAcrossCall.get(parameter.number)) return;
+            for (BasicBlock block : graph.blocks) {
+                for (int i = 0; i < block.instructions.size(); i++) {
+                    if (!(block.instructions.get(i) instanceof Instruction.IncomingArgument argument) || argument.destination != parameter)
+                        continue;
+                    List<Instruction> store = new ArrayList<>();
+                    storeSlot(graph, store, offset, parameter);
+                    block.instructions.addAll(i + 1, store);
+                    graph.unchangedHomes.add(parameter);
+                    return;
+                }
+            }
+        });
+    }
+
+    private static void storeSlot(ControlFlowGraph graph, List<Instruction> instructions, int offset, VirtualRegister value) {
+        VirtualRegister address = graph.newRegister();
+        instructions.add(new Instruction.FrameAddress(address, offset));
+        instructions.add(new Instruction.Store(value, address, 0));
+    }
+
+    /**
+     * @return true if the instruction only uses the address to load or store the slot it points to.
+     */
+    private static boolean accessesSlot(Instruction instruction, VirtualRegister address) {
+        if (instruction instanceof Instruction.Load load)
+            return load.offset == 0;
+        if (instruction instanceof Instruction.Store store)
+            return store.offset == 0 && store.value != address;
+        return false;
+    }
+
+    /**
+     * Removes the moves introduced for loads and stores of promoted variables inside a block.
+     * A temporary holding a copy of a variable is replaced by the variable itself, if the variable is not redefined
+     * while the temporary is in use. A temporary which is only computed to be stored into a variable is computed into
+     * the variable directly.
+     */
+    private static void propagateCopies(BasicBlock block, Map<VirtualRegister, Integer> useCount, Set<VirtualRegister> variables) {
+        List<Instruction> instructions = Liveness.instructions(block);
+        for (int i = 0; i < block.instructions.size(); i++) {
+            if (!(block.instructions.get(i) instanceof Instruction.Move move) || !variables.contains(move.source) || variables.contains(move.destination))
+                continue;
+
+            // all uses of the copy have to be inside this block and before the next definition of the variable
+            int remaining = useCount.getOrDefault(move.destination, 0);
+            List<Instruction> users = new ArrayList<>();
+            for (int j = i + 1; j < instructions.size() && remaining > 0; j++) {
+                Instruction instruction = instructions.get(j);
+                if (instruction.used().contains(move.destination)) {
+                    users.add(instruction);
+                    remaining -= Collections.frequency(instruction.used(), move.destination);
+                }
+                if (move.source == instruction.defined()) break;
+            }
+            if (remaining != 0) continue;
+
+            users.forEach(user -> user.replaceUse(move.destination, move.source));
+            useCount.merge(move.source, users.size(), Integer::sum);
+            block.instructions.remove(i);
+            instructions.remove(i);
+            i--;
+        }
+
+        for (int i = 1; i < block.instructions.size(); i++) {
+            if (!(block.instructions.get(i) instanceof Instruction.Move move) || !variables.contains(move.destination)) continue;
+
+            Instruction previous = block.instructions.get(i - 1);
+            if (previous.defined() == move.source && !variables.contains(move.source) && useCount.getOrDefault(move.source, 0) == 1) {
+                previous.redefine(move.destination);
+                block.instructions.remove(i);
+                i--;
+            }
+        }
+
+        block.instructions.removeIf(instruction -> instruction instanceof Instruction.Move move && move.source == move.destination);
+    }
+}
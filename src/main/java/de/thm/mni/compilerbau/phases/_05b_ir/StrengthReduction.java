@@ -0,0 +1,160 @@
+package de.thm.mni.compilerbau.phases._05b_ir;
+
+import java.util.*;
+
+import static de.thm.mni.compilerbau.phases._05b_ir.Instruction.Binary.Operator.*;
+
+/**
+ * This class replaces multiplications and divisions by constants with cheaper instructions.
+ * <p>
+ * A multiplication by a power of two becomes a left shift, a multiplication by the sum or difference of two powers of
+ * two becomes two shifts combined by an addition or subtraction. A division by a power of two becomes an arithmetic
+ * right shift. As the division truncates towards zero while the shift rounds down, a negative dividend is corrected
+ * first by adding the divisor minus one, which is computed from its sign bit without a branch.
+ * <p>
+ * Constants are recognized if they are immediate operands or have been loaded, possibly negated, into a register
+ * earlier in the same block.
+ */
+public class StrengthReduction {
+    private ControlFlowGraph graph;
+
+    /**
+     * Reduces all multiplications and divisions by suitable constants of a procedure.
+     *
+     * @param graph The procedure to transform.
+     */
+    public void reduce(ControlFlowGraph graph) {
+        this.graph = graph;
+        for (BasicBlock block : graph.blocks) {
+            Map<VirtualRegister, Integer> constants = new HashMap<>();
+            List<Instruction> reduced = new ArrayList<>();
+            for (Instruction instruction : block.instructions) {
+                List<Instruction> replacement = instruction instanceof Instruction.Binary binary ? reduce(binary, constants) : null;
+                reduced.addAll(replacement != null ? replacement : List.of(instruction));
+
+                Integer value = null;
+                if (instruction instanceof Instruction.LoadImmediate load) value = load.value;
+                if (instruction instanceof Instruction.Negate negate && constants.containsKey(negate.operand))
+                    value = -constants.get(negate.operand);
+                if (instruction.defined() != null) constants.remove(instruction.defined());
+                if (value != null) constants.put(instruction.defined(), value);
+            }
+            block.instructions.clear();
+            block.instructions.addAll(reduced);
+        }
+        removeUnusedConstants();
+    }
+
+    /**
+     * @return The instructions replacing the given instruction or null, if it is kept.
+     */
+    private List<Instruction> reduce(Instruction.Binary binary, Map<VirtualRegister, Integer> constants) {
+        if (binary.operator != MUL && binary.operator != DIV) return null;
+
+        VirtualRegister operand = binary.left;
+        Integer constant = constant(binary.right, constants);
+        if (constant == null && binary.operator == MUL && binary.right instanceof VirtualRegister) {
+            operand = (VirtualRegister) binary.right;
+            constant = constants.get(binary.left);
+        }
+        if (constant == null || constant == Integer.MIN_VALUE) return null;
+
+        return binary.operator == MUL
+                ? multiply(binary.destination, operand, constant)
+                : divide(binary.destination, operand, constant);
+    }
+
+    private static Integer constant(Operand operand, Map<VirtualRegister, Integer> constants) {
+        if (operand instanceof Immediate immediate) return immediate.value;
+        return constants.get((VirtualRegister) operand);
+    }
+
+    private List<Instruction> multiply(VirtualRegister destination, VirtualRegister operand, int factor) {
+        if (factor == 0) return List.of(new Instruction.LoadImmediate(destination, 0));
+        if (factor == 1) return List.of(new Instruction.Move(destination, operand));
+        if (factor == -1) return List.of(new Instruction.Negate(destination, operand));
+
+        int magnitude = Math.abs(factor);
+        if (Integer.bitCount(magnitude) == 1) {
+            int shift = Integer.numberOfTrailingZeros(magnitude);
+            if (factor > 0) return List.of(shift(SLL, destination, operand, shift));
+            VirtualRegister shifted = graph.newRegister();
+            return List.of(shift(SLL, shifted, operand, shift), new Instruction.Negate(destination, shifted));
+        }
+        if (factor < 0) return null;
+
+        // 2^high + 2^low or 2^high - 2^low
+        int high = 31 - Integer.numberOfLeadingZeros(factor);
+        int low = Integer.numberOfTrailingZeros(factor);
+        if (Integer.bitCount(factor) == 2)
+            return combine(ADD, destination, operand, high, low);
+        if (high < 30 && Integer.bitCount(factor + (1 << low)) == 1)
+            return combine(SUB, destination, operand, high + 1, low);
+        return null;
+    }
+
+    private List<Instruction> combine(Instruction.Binary.Operator operator, VirtualRegister destination, VirtualRegister operand, int high, int low) {
+        List<Instruction> instructions = new ArrayList<>();
+        VirtualRegister left = graph.newRegister();
+        instructions.add(shift(SLL, left, operand, high));
+        VirtualRegister right = operand;
+        if (low > 0) {
+            right = graph.newRegister();
+            instructions.add(shift(SLL, right, operand, low));
+        }
+        instructions.add(new Instruction.Binary(operator, destination, left, right));
+        return instructions;
+    }
+
+    private List<Instruction> divide(VirtualRegister destination, VirtualRegister operand, int divisor) {
+        if (divisor == 1) return List.of(new Instruction.Move(destination, operand));
+        if (divisor == -1) return List.of(new Instruction.Negate(destination, operand));
+
+        int magnitude = Math.abs(divisor);
+        if (Integer.bitCount(magnitude) != 1) return null;
+        int shift = Integer.numberOfTrailingZeros(magnitude);
+
+        // bias = negative ? 2^shift - 1 : 0
+        List<Instruction> instructions = new ArrayList<>();
+        VirtualRegister bias = graph.newRegister();
+        if (shift == 1) {
+            instructions.add(shift(SLR, bias, operand, 31));
+        } else {
+            VirtualRegister sign = graph.newRegister();
+            instructions.add(shift(SAR, sign, operand, 31));
+            instructions.add(shift(SLR, bias, sign, 32 - shift));
+        }
+        VirtualRegister biased = graph.newRegister();
+        instructions.add(new Instruction.Binary(ADD, biased, operand, bias));
+
+        if (divisor > 0) {
+            instructions.add(shift(SAR, destination, biased, shift));
+        } else {
+            VirtualRegister quotient = graph.newRegister();
+            instructions.add(shift(SAR, quotient, biased, shift));
+            instructions.add(new Instruction.Negate(destination, quotient));
+        }
+        return instructions;
+    }
+
+    private static Instruction shift(Instruction.Binary.Operator operator, VirtualRegister destination, VirtualRegister operand, int amount) {
+        return new Instruction.Binary(operator, destination, operand, new Immediate(amount));
+    }
+
+    /**
+     * Removes the loads of constants, which are no longer used after their uses have been reduced.
+     */
+    private void removeUnusedConstants() {
+        boolean changed = true;
+        while (changed) {
+            Set<VirtualRegister> used = new HashSet<>();
+            for (BasicBlock block : graph.blocks)
+                for (Instruction instruction : Liveness.instructions(block))
+                    used.addAll(instruction.used());
+            changed = false;
+            for (BasicBlock block : graph.blocks)
+                changed |= block.instructions.removeIf(instruction -> (instruction instanceof Instruction.LoadImmediate || instruction instanceof Instruction.Negate)
+                        && !used.contains(instruction.defined()));
+        }
+    }
+}
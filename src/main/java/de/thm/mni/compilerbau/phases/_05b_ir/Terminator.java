@@ -0,0 +1,219 @@
+package de.thm.mni.compilerbau.phases._05b_ir;
+
+import java.util.List;
+
+/**
+ * This class is the abstract superclass of the instructions ending a {@link BasicBlock}.
+ * A terminator is the only instruction of a block transferring control, it determines the successors of the block.
+ */
+public abstract class Terminator extends Instruction {
+
+    /**
+     * @return The blocks control may be transferred to, the preferred one first.
+     */
+    public abstract List<BasicBlock> successors();
+
+    /**
+     * Replaces a successor of this terminator.
+     *
+     * @param from The successor to replace.
+     * @param to   The block to transfer control to instead.
+     */
+    public abstract void replaceSuccessor(BasicBlock from, BasicBlock to);
+
+    /**
+     * Unconditionally transfers control to another block.
+     */
+    public static final class Jump extends Terminator {
+        public BasicBlock target;
+
+        public Jump(BasicBlock target) {
+            this.target = target;
+        }
+
+        @Override
+        public List<BasicBlock> successors() {
+            return List.of(target);
+        }
+
+        @Override
+        public void replaceSuccessor(BasicBlock from, BasicBlock to) {
+            if (target == from) target = to;
+        }
+
+        @Override
+        public List<VirtualRegister> used() {
+            return List.of();
+        }
+
+        @Override
+        public void replaceUse(VirtualRegister from, VirtualRegister to) {
+        }
+
+        @Override
+        public void accept(InstructionVisitor visitor) {
+            visitor.visit(this);
+        }
+
+        @Override
+        public String toString() {
+            return "jump " + target.name();
+        }
+    }
+
+    /**
+     * Transfers control to one of two blocks, depending on the comparison of two registers.
+     */
+    public static final class Branch extends Terminator {
+        public enum Condition {
+            EQ, NE, LT, LE, GT, GE;
+
+            public Condition negate() {
+                return switch (this) {
+                    case EQ -> NE;
+                    case NE -> EQ;
+                    case LT -> GE;
+                    case LE -> GT;
+                    case GT -> LE;
+                    case GE -> LT;
+                };
+            }
+
+            /**
+             * @return The condition holding, if the operands of the comparison are swapped.
+             */
+            public Condition swap() {
+                return switch (this) {
+                    case EQ, NE -> this;
+                    case LT -> GT;
+                    case LE -> GE;
+                    case GT -> LT;
+                    case GE -> LE;
+                };
+            }
+
+            public String mnemonic() {
+                return "b" + name().toLowerCase();
+            }
+        }
+
+        public Condition condition;
+        public VirtualRegister left;
+        public VirtualRegister right;
+        public BasicBlock trueTarget;
+        public BasicBlock falseTarget;
+
+        public Branch(Condition condition, VirtualRegister left, VirtualRegister right, BasicBlock trueTarget, BasicBlock falseTarget) {
+            this.condition = condition;
+            this.left = left;
+            this.right = right;
+            this.trueTarget = trueTarget;
+            this.falseTarget = falseTarget;
+        }
+
+        @Override
+        public List<BasicBlock> successors() {
+            return List.of(trueTarget, falseTarget);
+        }
+
+        @Override
+        public void replaceSuccessor(BasicBlock from, BasicBlock to) {
+            if (trueTarget == from) trueTarget = to;
+            if (falseTarget == from) falseTarget = to;
+        }
+
+        @Override
+        public List<VirtualRegister> used() {
+            return List.of(left, right);
+        }
+
+        @Override
+        public void replaceUse(VirtualRegister from, VirtualRegister to) {
+            if (left == from) left = to;
+            if (right == from) right = to;
+        }
+
+        @Override
+        public void accept(InstructionVisitor visitor) {
+            visitor.visit(this);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("if %s %s %s then %s else %s", left, condition, right, trueTarget.name(), falseTarget.name());
+        }
+    }
+
+    /**
+     * Returns from the procedure.
+     */
+    public static final class Return extends Terminator {
+        @Override
+        public List<BasicBlock> successors() {
+            return List.of();
+        }
+
+        @Override
+        public void replaceSuccessor(BasicBlock from, BasicBlock to) {
+        }
+
+        @Override
+        public List<VirtualRegister> used() {
+            return List.of();
+        }
+
+        @Override
+        public void replaceUse(VirtualRegister from, VirtualRegister to) {
+        }
+
+        @Override
+        public void accept(InstructionVisitor visitor) {
+            visitor.visit(this);
+        }
+
+        @Override
+        public String toString() {
+            return "return";
+        }
+    }
+
+    /**
+     * Releases the frame of the procedure and jumps to another procedure, which returns to the caller of this one.
+     * The arguments have already been stored into the argument area of this procedure.
+     */
+    public static final class TailCall extends Terminator {
+        public final String procedure;
+
+        public TailCall(String procedure) {
+            this.procedure = procedure;
+        }
+
+        @Override
+        public List<BasicBlock> successors() {
+            return List.of();
+        }
+
+        @Override
+        public void replaceSuccessor(BasicBlock from, BasicBlock to) {
+        }
+
+        @Override
+        public List<VirtualRegister> used() {
+            return List.of();
+        }
+
+        @Override
+        public void replaceUse(VirtualRegister from, VirtualRegister to) {
+        }
+
+        @Override
+        public void accept(InstructionVisitor visitor) {
+            visitor.visit(this);
+        }
+
+        @Override
+        public String toString() {
+            return "tail call " + procedure;
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package de.thm.mni.compilerbau.phases._05b_ir;
+
+/**
+ * This class represents a register of the intermediate representation.
+ * There is an unlimited number of virtual registers, they are mapped to the registers of the ECO32 by the backend.
+ */
+public final class VirtualRegister implements Operand {
+    public final int number;
+
+    VirtualRegister(int number) {
+        this.number = number;
+    }
+
+    @Override
+    public String toString() {
+        return "v" + number;
+    }
+}
@@ -0,0 +1,145 @@
+package de.thm.mni.compilerbau.phases._06_codegen;
+
+import java.util.Set;
+
+/**
+ * This class represents a single line of the emitted assembly code, as it is buffered for the
+ * {@link PeepholeOptimizer}. The opcode and operands of an instruction can be rewritten in place.
+ */
+class AssemblyLine {
+    enum Kind {INSTRUCTION, LABEL, DIRECTIVE}
+
+    private static final Set<String> STORES = Set.of("stw", "sth", "stb");
+    private static final Set<String> BRANCHES = Set.of("beq", "bne", "blt", "ble", "bgt", "bge", "bltu", "bleu", "bgtu", "bgeu");
+
+    /**
+     * The registers a called procedure may overwrite, which are all registers available for free use.
+     */
+    static final int CLOBBERED_BY_CALL = 0x00FFFF00;
+
+    final Kind kind;
+    String opcode;
+    final String[] operands;
+    private final String comment;
+    private final String commentSeparator;
+
+    private AssemblyLine(Kind kind, String opcode, String[] operands, String comment, String commentSeparator) {
+        this.kind = kind;
+        this.opcode = opcode;
+        this.operands = operands;
+        this.comment = comment;
+        this.commentSeparator = commentSeparator;
+    }
+
+    static AssemblyLine instruction(String opcode, String comment, String commentSeparator, Object... operands) {
+        String[] strings = new String[operands.length];
+        for (int i = 0; i < operands.length; i++)
+            strings[i] = operands[i].toString();
+        return new AssemblyLine(Kind.INSTRUCTION, opcode, strings, comment, commentSeparator);
+    }
+
+    static AssemblyLine label(String label) {
+        return new AssemblyLine(Kind.LABEL, label, new String[0], null, null);
+    }
+
+    static AssemblyLine directive(String text) {
+        return new AssemblyLine(Kind.DIRECTIVE, text, new String[0], null, null);
+    }
+
+    boolean isInstruction() {
+        return kind == Kind.INSTRUCTION;
+    }
+
+    boolean isLabel() {
+        return kind == Kind.LABEL;
+    }
+
+    boolean isStore() {
+        return isInstruction() && STORES.contains(opcode);
+    }
+
+    boolean isLoad() {
+        return isInstruction() && opcode.startsWith("ld") && !opcode.equals("ldhi");
+    }
+
+    boolean isBranch() {
+        return isInstruction() && BRANCHES.contains(opcode);
+    }
+
+    boolean isJump() {
+        return isInstruction() && opcode.equals("j");
+    }
+
+    /**
+     * @return true if this line is not an instruction executed after its predecessor and before its successor.
+     */
+    boolean changesControlFlow() {
+        return !isInstruction() || isBranch() || opcode.startsWith("j");
+    }
+
+    /**
+     * @return The label jumped to by this branch or jump instruction, or null if this is neither.
+     */
+    String target() {
+        if (isBranch()) return operands[2];
+        if (isJump()) return operands[0];
+        return null;
+    }
+
+    void setTarget(String label) {
+        operands[isBranch() ? 2 : 0] = label;
+    }
+
+    /**
+     * @return The number of the register given by an operand or -1, if the operand is not a register.
+     */
+    int register(int operand) {
+        if (operand >= operands.length || !operands[operand].startsWith("$")) return -1;
+        return Integer.parseInt(operands[operand].substring(1));
+    }
+
+    /**
+     * @return The value of an immediate operand or null, if the operand is not a number.
+     */
+    Integer immediate(int operand) {
+        if (operand >= operands.length || !operands[operand].matches("-?\\d+")) return null;
+        return Integer.parseInt(operands[operand]);
+    }
+
+    /**
+     * @return The index of the first operand read by this instruction, all operands before it are written.
+     */
+    int firstReadOperand() {
+        return isStore() || isBranch() || opcode.equals("jr") ? 0 : 1;
+    }
+
+    /**
+     * @return The registers read by this instruction as a bit mask.
+     */
+    int reads() {
+        int mask = 0;
+        if (!isInstruction() || opcode.equals("j") || opcode.equals("jal")) return mask;
+        for (int operand = firstReadOperand(); operand < operands.length; operand++)
+            if (register(operand) >= 0) mask |= 1 << register(operand);
+        return mask;
+    }
+
+    /**
+     * @return The registers written by this instruction as a bit mask.
+     */
+    int writes() {
+        if (!isInstruction()) return 0;
+        if (opcode.equals("jal")) return CLOBBERED_BY_CALL | 1 << 31;
+        if (firstReadOperand() == 0 || opcode.startsWith("j") || register(0) < 0) return 0;
+        return 1 << register(0);
+    }
+
+    @Override
+    public String toString() {
+        return switch (kind) {
+            case LABEL -> opcode + ":";
+            case DIRECTIVE -> opcode;
+            case INSTRUCTION -> "\t" + opcode + "\t" + String.join(",", operands) + (comment == null ? "" : commentSeparator + "; " + comment);
+        };
+    }
+}
@@ -3,17 +3,25 @@ package de.thm.mni.compilerbau.phases._06_codegen;
 import de.thm.mni.compilerbau.CommandLineOptions;
 import de.thm.mni.compilerbau.absyn.*;
 import de.thm.mni.compilerbau.absyn.visitor.DoNothingVisitor;
+import de.thm.mni.compilerbau.absyn.visitor.Visitable;
+import de.thm.mni.compilerbau.phases._05_varalloc.ErshovNumbering;
 import de.thm.mni.compilerbau.phases._05_varalloc.StackLayout;
+import de.thm.mni.compilerbau.phases._05b_ir.ArrayAccesses;
+import de.thm.mni.compilerbau.phases._05b_ir.Immediate;
+import de.thm.mni.compilerbau.table.Identifier;
 import de.thm.mni.compilerbau.table.ParameterType;
 import de.thm.mni.compilerbau.table.ProcedureEntry;
 import de.thm.mni.compilerbau.table.SymbolTable;
 import de.thm.mni.compilerbau.table.VariableEntry;
 import de.thm.mni.compilerbau.types.ArrayType;
 import de.thm.mni.compilerbau.types.RecordType;
+import de.thm.mni.compilerbau.utils.Pair;
 import de.thm.mni.compilerbau.utils.SplError;
 
 import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * This class is used to generate the assembly code for the compiled program.
@@ -23,16 +31,40 @@ public class CodeGenerator extends DoNothingVisitor {
     final CommandLineOptions options;
     final CodePrinter output;
     private SymbolTable table;
+    private StackLayout layout;
     private Register register;
+    private Register frameBase;
+    private int frameBaseOffset;
+    private Identifier procedureName;
+    private int bodyLabel; // the start of the body, which a procedure calling itself at its end jumps back to
 
-    private static Register regNull = new Register(0),
+    static final Register regNull = new Register(0),
                 regFP = new Register(25),
                 regSP = new Register(29),
                 regRET = new Register(31);
 
     private int label;
+    private int conditionLabel;
+    private boolean jumpIfTrue;
+    private int spillDepth;
     private boolean shouldLoad;
 
+    /**
+     * The address of the variable evaluated last is the sum of a base register and a displacement. The base is either
+     * the current register or the register the frame is addressed with. Without --addressing the address is always
+     * computed into the current register.
+     */
+    private record Address(Register base, int displacement) {
+        /**
+         * @return The base register, after the value of the current register has been moved to the given one.
+         */
+        Register base(Register moved) {
+            return base.isFreeUse() ? moved : base;
+        }
+    }
+
+    private Address address;
+
     /**
      * Initializes the code generator.
      *
@@ -41,16 +73,17 @@ public class CodeGenerator extends DoNothingVisitor {
      */
     public CodeGenerator(CommandLineOptions options, PrintWriter output) throws IOException {
         this.options = options;
-        this.output = new CodePrinter(output);
+        this.output = new CodePrinter(output, options.peepholeRules == null ? null : new PeepholeOptimizer(options.peepholeRules));
         this.register = new Register(8);
         this.label = -1;
         this.shouldLoad = true;
     }
 
     public void generateCode(Program program, SymbolTable table) {
-        assemblerProlog();
+        assemblerProlog(output);
         this.table = table;
         program.accept(this);
+        output.flush();
     }
 
     private Register pushReg() {
@@ -64,6 +97,49 @@ public class CodeGenerator extends DoNothingVisitor {
         return this.register = register.minus(1);
     }
 
+    /**
+     * Evaluates a variable and returns its address without computing it into a register, if possible.
+     */
+    private Address address(Variable variable) {
+        variable.accept(this);
+        return address;
+    }
+
+    /**
+     * Computes an address into the current register.
+     */
+    private void emitAddress(Address address) {
+        if (address.base.number != register.number || address.displacement != 0)
+            output.emitInstruction("add", register, address.base, address.displacement);
+    }
+
+    /**
+     * Evaluates a subtree while the result of a previously evaluated subtree is kept in the current register.
+     * If the subtree needs more registers than are left, the kept result is spilled to the frame and reloaded afterwards.
+     *
+     * @param next         The subtree to evaluate.
+     * @param ershovNumber The ershov number of the subtree, 0 if it is unknown.
+     * @return The registers holding the kept result and the result of the subtree.
+     */
+    private Pair<Register, Register> evaluateNext(Visitable next, int ershovNumber) {
+        Register kept = register;
+        if (ershovNumber <= register.freeUseFollowing()) {
+            Register result = pushReg();
+            next.accept(this);
+            popReg();
+            return new Pair<>(kept, result);
+        }
+
+        int slot = spillDepth++;
+        output.emitInstruction("stw", register, frameBase, frameBaseOffset + layout.spillSlotOffset(slot), "spill");
+        next.accept(this);
+        Register reloaded = pushReg();
+        popReg();
+        output.emitInstruction("ldw", reloaded, frameBase, frameBaseOffset + layout.spillSlotOffset(slot), "reload");
+        spillDepth--;
+        return new Pair<>(reloaded, register);
+    }
+
     @Override
     public void visit(Program program) {
         program.declarations.forEach(x -> x.accept(this));
@@ -80,20 +156,48 @@ public class CodeGenerator extends DoNothingVisitor {
         compoundStatement.statements.forEach(x -> x.accept(this));
     }
 
+    /**
+     * Evaluates a comparison and jumps to the given label if it has the given outcome.
+     */
+    private void emitConditionalJump(Expression condition, int target, boolean outcome) {
+        conditionLabel = target;
+        jumpIfTrue = outcome;
+        condition.accept(this);
+    }
+
     @Override
     public void visit(WhileStatement whileStatement) {
+        if (options.loopInversion) {
+            emitInvertedLoop(whileStatement);
+            return;
+        }
         // while
         int whileLabel = ++label;
         int endLabel = ++label;
 
         output.emitLabel(String.format("L%d", whileLabel));
-        whileStatement.condition.accept(this);
+        emitConditionalJump(whileStatement.condition, endLabel, false);
         whileStatement.body.accept(this);
         output.emitInstruction("j", String.format("L%d", whileLabel));
         // end of while
         output.emitLabel(String.format("L%d", endLabel));
     }
 
+    /**
+     * Emits a while loop testing its condition at the end of the body, so that an iteration needs a single branch
+     * instead of a branch and a jump. The condition is tested once more in front of the loop to skip it entirely.
+     */
+    private void emitInvertedLoop(WhileStatement whileStatement) {
+        int bodyLabel = ++label;
+        int endLabel = ++label;
+
+        emitConditionalJump(whileStatement.condition, endLabel, false);
+        output.emitLabel(String.format("L%d", bodyLabel));
+        whileStatement.body.accept(this);
+        emitConditionalJump(whileStatement.condition, bodyLabel, true);
+        output.emitLabel(String.format("L%d", endLabel));
+    }
+
     @Override
     public void visit(IfStatement ifStatement) {
         int elseLabel = 0;
@@ -102,7 +206,7 @@ public class CodeGenerator extends DoNothingVisitor {
             elseLabel = ++label;
         else
             endLabel = ++label;
-        ifStatement.condition.accept(this);
+        emitConditionalJump(ifStatement.condition, label, false);
         ifStatement.thenPart.accept(this);
 
         if (!(ifStatement.elsePart instanceof EmptyStatement)) {
@@ -116,80 +220,252 @@ public class CodeGenerator extends DoNothingVisitor {
 
     @Override
     public void visit(ProcedureDeclaration procedureDeclaration) {
-        output.emitExport(procedureDeclaration.name.toString());
-        output.emitLabel(procedureDeclaration.name.toString());
-
         ProcedureEntry entry = (ProcedureEntry) table.lookup(procedureDeclaration.name);
+        output.beginProcedure(procedureDeclaration.name.toString());
+        if (entry.isExported) output.emitExport(procedureDeclaration.name.toString());
+        output.emitLabel(procedureDeclaration.name.toString());
 
-        StackLayout layout = entry.stackLayout;
+        layout = entry.stackLayout;
         SymbolTable globalTable = table;
 
         table = entry.localTable;
 
+        frameBase = frameBase(layout);
+        frameBaseOffset = frameBaseOffset(layout);
+
+        emitPrologue(output, layout);
+        emitArgumentStores(output, entry.parameterTypes, frameBase, frameBaseOffset);
+        procedureName = procedureDeclaration.name;
+        if (callsItselfLast(procedureDeclaration.body)) {
+            bodyLabel = ++label;
+            output.emitLabel(String.format("L%d", bodyLabel));
+        }
+        procedureDeclaration.body.forEach(x -> x.accept(this));
+        emitEpilogue(output, layout);
+
+        table = globalTable;
+    }
+
+    /**
+     * @return true if a tail call of the current procedure ends one of the statements.
+     */
+    private boolean callsItselfLast(List<Statement> statements) {
+        return statements.stream().anyMatch(this::callsItselfLast);
+    }
+
+    private boolean callsItselfLast(Statement statement) {
+        if (statement instanceof CallStatement call)
+            return call.isTailCall && call.procedureName.equals(procedureName);
+        if (statement instanceof IfStatement ifStatement)
+            return callsItselfLast(ifStatement.thenPart) || callsItselfLast(ifStatement.elsePart);
+        if (statement instanceof CompoundStatement compoundStatement)
+            return callsItselfLast(compoundStatement.statements);
+        return false;
+    }
+
+    /**
+     * @return The register the frame of a procedure is addressed with.
+     */
+    static Register frameBase(StackLayout layout) {
+        return layout.isOptimizedLeafProcedure || layout.isFramePointerOmitted ? regSP : regFP;
+    }
+
+    /**
+     * @return The offset of the frame pointer from the {@link #frameBase(StackLayout)} of a procedure.
+     */
+    static int frameBaseOffset(StackLayout layout) {
+        return layout.isOptimizedLeafProcedure || layout.isFramePointerOmitted ? layout.frameSize() : 0;
+    }
+
+    /**
+     * Emits the code allocating the stack frame of a procedure.
+     * A leaf procedure neither saves the return address nor sets up a frame pointer, its frame is addressed relative
+     * to the stack pointer instead. It is only allocated if it is not empty, as interrupts may use the stack below the
+     * stack pointer at any time. With --omitFP, every frame is addressed relative to the stack pointer, which does not
+     * change while the procedure is active, so the frame pointer of the caller is neither saved nor replaced.
+     */
+    static void emitPrologue(CodePrinter output, StackLayout layout) {
+        if (layout.isOptimizedLeafProcedure) {
+            if (layout.frameSize() > 0)
+                output.emitInstruction("sub", regSP, regSP, layout.frameSize(), "allocate frame");
+            return;
+        }
         output.emitInstruction("sub", regSP, regSP, layout.frameSize(), "allocate frame");
+        if (layout.isFramePointerOmitted) {
+            output.emitInstruction("stw", regRET, regSP, layout.frameSize() + layout.oldReturnAddressOffset(), "save return register");
+            return;
+        }
         output.emitInstruction("stw", regFP, regSP, layout.oldFramePointerOffset(), "save old frame pointer");
         output.emitInstruction("add", regFP, regSP, layout.frameSize(), "setup new frame pointer");
         output.emitInstruction("stw", regRET, regFP, layout.oldReturnAddressOffset(), "save return register");
+    }
 
-        procedureDeclaration.body.forEach(x -> x.accept(this));
+    /**
+     * Emits the code storing the arguments passed in registers to their slots in the frame of the called procedure.
+     */
+    static void emitArgumentStores(CodePrinter output, List<ParameterType> parameters, Register frameBase, int frameBaseOffset) {
+        for (int i = 0; i < parameters.size(); i++)
+            if (parameters.get(i).register != 0)
+                output.emitInstruction("stw", new Register(parameters.get(i).register), frameBase, frameBaseOffset + parameters.get(i).offset,
+                        String.format("store argument #%d", i));
+    }
 
-        output.emitInstruction("ldw", regRET, regFP, layout.oldReturnAddressOffset(), "restore return register");
-        output.emitInstruction("ldw", regFP, regSP, layout.oldFramePointerOffset(), "restore old frame pointer");
-        output.emitInstruction("add", regSP, regSP, layout.frameSize(), "release frame");
+    /**
+     * Emits the code releasing the stack frame of a procedure and returning to the caller.
+     */
+    static void emitEpilogue(CodePrinter output, StackLayout layout) {
+        emitFrameRelease(output, layout);
         output.emitInstruction("jr", regRET, "return");
+    }
 
-        table = globalTable;
+    /**
+     * Emits the code releasing the stack frame of a procedure, which restores the frame pointer and return address
+     * of the caller.
+     */
+    static void emitFrameRelease(CodePrinter output, StackLayout layout) {
+        if (layout.isOptimizedLeafProcedure) {
+            if (layout.frameSize() > 0)
+                output.emitInstruction("add", regSP, regSP, layout.frameSize(), "release frame");
+        } else if (layout.isFramePointerOmitted) {
+            output.emitInstruction("ldw", regRET, regSP, layout.frameSize() + layout.oldReturnAddressOffset(), "restore return register");
+            output.emitInstruction("add", regSP, regSP, layout.frameSize(), "release frame");
+        } else {
+            output.emitInstruction("ldw", regRET, regFP, layout.oldReturnAddressOffset(), "restore return register");
+            output.emitInstruction("ldw", regFP, regSP, layout.oldFramePointerOffset(), "restore old frame pointer");
+            output.emitInstruction("add", regSP, regSP, layout.frameSize(), "release frame");
+        }
     }
 
     @Override
     public void visit(AssignStatement assignStatement) {
-        Register var = register;
-        assignStatement.target.accept(this);
-        pushReg();
-        assignStatement.value.accept(this);
-        output.emitInstruction("stw", register, var, 0);
-        popReg();
+        Register var, value;
+        Address target;
+        if (options.immediateSelection && isLiteral(assignStatement.value, 0)) {
+            target = address(assignStatement.target);
+            output.emitInstruction("stw", regNull, target.base, target.displacement);
+            return;
+        }
+        if (options.ershovOptimization && assignStatement.value.ershovNumber > assignStatement.target.ershovNumber) {
+            assignStatement.value.accept(this);
+            var registers = evaluateNext(assignStatement.target, assignStatement.target.ershovNumber);
+            target = address;
+            value = registers.first;
+            var = target.base(registers.second);
+        } else {
+            target = address(assignStatement.target);
+            if (!target.base.isFreeUse()) {
+                // the address needs no register
+                assignStatement.value.accept(this);
+                output.emitInstruction("stw", register, target.base, target.displacement);
+                return;
+            }
+            var registers = evaluateNext(assignStatement.value, assignStatement.value.ershovNumber);
+            var = target.base(registers.first);
+            value = registers.second;
+        }
+        output.emitInstruction("stw", value, var, target.displacement);
     }
 
     @Override
     public void visit(BinaryExpression binaryExpression) {
-        binaryExpression.leftOperand.accept(this);
-        Register rop = pushReg();
-        binaryExpression.rightOperand.accept(this);
-        popReg();
+        if (options.immediateSelection && emitWithLiteral(binaryExpression))
+            return;
+        Expression left = binaryExpression.leftOperand, right = binaryExpression.rightOperand;
+        Register lop, rop;
+        if (options.ershovOptimization && right.ershovNumber > left.ershovNumber) {
+            right.accept(this);
+            var registers = evaluateNext(left, left.ershovNumber);
+            rop = registers.first;
+            lop = registers.second;
+        } else {
+            left.accept(this);
+            var registers = evaluateNext(right, right.ershovNumber);
+            lop = registers.first;
+            rop = registers.second;
+        }
+        emitOperation(binaryExpression.operator, lop, rop);
+    }
+
+    /**
+     * Emits a binary expression with a literal operand without loading the literal into a register. Arithmetic uses
+     * the immediate form of the instruction, a comparison with zero uses $0.
+     *
+     * @return false if no operand of the expression can be used this way.
+     */
+    private boolean emitWithLiteral(BinaryExpression binaryExpression) {
+        Expression left = binaryExpression.leftOperand, right = binaryExpression.rightOperand;
         BinaryExpression.Operator op = binaryExpression.operator;
-        if (op.isComparison())
+        boolean commutative = op == BinaryExpression.Operator.ADD || op == BinaryExpression.Operator.MUL;
+
+        if (op.isComparison()) {
+            if (isLiteral(right, 0)) {
+                left.accept(this);
+                emitOperation(op, register, regNull);
+            } else if (isLiteral(left, 0)) {
+                right.accept(this);
+                emitOperation(op, regNull, register);
+            } else {
+                return false;
+            }
+        } else if (isImmediate(right)) {
+            left.accept(this);
+            output.emitInstruction(op.name().toLowerCase(), register, register, ((IntLiteral) right).value);
+        } else if (isImmediate(left) && commutative) {
+            right.accept(this);
+            output.emitInstruction(op.name().toLowerCase(), register, register, ((IntLiteral) left).value);
+        } else if (isLiteral(left, 0) && op == BinaryExpression.Operator.SUB) {
+            right.accept(this);
+            output.emitInstruction("sub", register, regNull, register);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean isImmediate(Expression expression) {
+        return expression instanceof IntLiteral literal && Immediate.isEncodable(literal.value);
+    }
+
+    private static boolean isLiteral(Expression expression, int value) {
+        return expression instanceof IntLiteral literal && literal.value == value;
+    }
+
+    /**
+     * Emits the instruction of a binary operator, a comparison jumps to the label of the current condition.
+     */
+    private void emitOperation(BinaryExpression.Operator op, Register lop, Register rop) {
+        if (op.isComparison() && !jumpIfTrue)
             op = op.flipComparison();
         switch (op) {
             case ADD:
-                output.emitInstruction("add", register, register, rop);
+                output.emitInstruction("add", register, lop, rop);
                 break;
             case SUB:
-                output.emitInstruction("sub", register, register, rop);
+                output.emitInstruction("sub", register, lop, rop);
                 break;
             case MUL:
-                output.emitInstruction("mul", register, register, rop);
+                output.emitInstruction("mul", register, lop, rop);
                 break;
             case DIV:
-                output.emitInstruction("div", register, register, rop);
+                output.emitInstruction("div", register, lop, rop);
                 break;
             case GRT:
-                output.emitInstruction("bgt", register, rop, String.format("L%d", label));
+                output.emitInstruction("bgt", lop, rop, String.format("L%d", conditionLabel));
                 break;
             case GRE:
-                output.emitInstruction("bge", register, rop, String.format("L%d", label));
+                output.emitInstruction("bge", lop, rop, String.format("L%d", conditionLabel));
                 break;
             case LST:
-                output.emitInstruction("blt", register, rop, String.format("L%d", label));
+                output.emitInstruction("blt", lop, rop, String.format("L%d", conditionLabel));
                 break;
             case LSE:
-                output.emitInstruction("ble", register, rop, String.format("L%d", label));
+                output.emitInstruction("ble", lop, rop, String.format("L%d", conditionLabel));
                 break;
             case NEQ:
-                output.emitInstruction("bne", register, rop, String.format("L%d", label));
+                output.emitInstruction("bne", lop, rop, String.format("L%d", conditionLabel));
                 break;
             case EQU:
-                output.emitInstruction("beq", register, rop, String.format("L%d", label));
+                output.emitInstruction("beq", lop, rop, String.format("L%d", conditionLabel));
                 break;
         }
     }
@@ -197,36 +473,235 @@ public class CodeGenerator extends DoNothingVisitor {
     @Override
     public void visit(CallStatement callStatement) {
         ProcedureEntry proc = (ProcedureEntry) table.lookup(callStatement.procedureName);
+        if (callStatement.isTailCall) {
+            emitTailCall(callStatement, proc);
+            return;
+        }
         for (int i = 0; i < callStatement.arguments.size(); i++) {
             Expression e = callStatement.arguments.get(i);
             ParameterType type = proc.parameterTypes.get(i);
             shouldLoad = !type.isReference;
-            e.accept(this);
-            output.emitInstruction("stw", register, regSP, proc.parameterTypes.get(i).offset, String.format("store argument #%d", i));
+            Register argument = regNull;
+            if (!options.immediateSelection || !isLiteral(e, 0)) {
+                e.accept(this);
+                argument = register;
+            }
+            if (type.register != 0)
+                output.emitInstruction("add", new Register(type.register), argument, regNull, String.format("pass argument #%d", i));
+            else
+                output.emitInstruction("stw", argument, regSP, type.offset, String.format("store argument #%d", i));
         }
         shouldLoad = true;
         output.emitInstruction("jal", callStatement.procedureName.toString());
     }
 
+    /**
+     * Emits a tail call. The arguments are stored into the argument area of the current procedure, where the called
+     * procedure expects them. An argument is kept in a register until all arguments are evaluated, if a later argument
+     * still reads the parameter it overwrites. A procedure calling itself jumps back to the start of its body, any
+     * other procedure is jumped to after the frame has been released. Arguments passed in registers are moved there,
+     * unless the procedure calls itself, whose prologue has stored them already.
+     */
+    private void emitTailCall(CallStatement callStatement, ProcedureEntry proc) {
+        boolean callsItself = callStatement.procedureName.equals(procedureName);
+        List<Pair<Register, Integer>> kept = new ArrayList<>();
+        for (int i = 0; i < callStatement.arguments.size(); i++) {
+            Expression e = callStatement.arguments.get(i);
+            int offset = proc.parameterTypes.get(i).offset;
+            shouldLoad = !proc.parameterTypes.get(i).isReference;
+            Register argument = regNull;
+            if (!options.immediateSelection || !isLiteral(e, 0)) {
+                e.accept(this);
+                argument = register;
+            }
+            if (proc.parameterTypes.get(i).register != 0 && !callsItself) {
+                output.emitInstruction("add", new Register(proc.parameterTypes.get(i).register), argument, regNull, String.format("pass argument #%d", i));
+            } else if (callStatement.arguments.subList(i + 1, callStatement.arguments.size()).stream().anyMatch(x -> readsParameter(x, offset))) {
+                kept.add(new Pair<>(argument, i));
+                if (argument == register) pushReg();
+            } else {
+                output.emitInstruction("stw", argument, frameBase, frameBaseOffset + offset, String.format("store argument #%d", i));
+            }
+        }
+        shouldLoad = true;
+        for (Pair<Register, Integer> argument : kept) {
+            output.emitInstruction("stw", argument.first, frameBase, frameBaseOffset + proc.parameterTypes.get(argument.second).offset,
+                    String.format("store argument #%d", argument.second));
+            if (argument.first != regNull) popReg();
+        }
+
+        if (callsItself) {
+            output.emitInstruction("j", String.format("L%d", bodyLabel));
+        } else {
+            emitFrameRelease(output, layout);
+            output.emitInstruction("j", callStatement.procedureName.toString(), "tail call");
+        }
+    }
+
+    /**
+     * @return true if evaluating the node reads the parameter at the given offset of the current procedure.
+     */
+    private boolean readsParameter(Node node, int offset) {
+        if (node instanceof NamedVariable namedVariable)
+            return ((VariableEntry) table.lookup(namedVariable.name)).offset == offset;
+        if (node instanceof BinaryExpression binaryExpression)
+            return readsParameter(binaryExpression.leftOperand, offset) || readsParameter(binaryExpression.rightOperand, offset);
+        if (node instanceof UnaryExpression unaryExpression)
+            return readsParameter(unaryExpression.operand, offset);
+        if (node instanceof VariableExpression variableExpression)
+            return readsParameter(variableExpression.variable, offset);
+        if (node instanceof FieldAccess fieldAccess)
+            return readsParameter(fieldAccess.variable, offset);
+        if (node instanceof ArrayAccess arrayAccess)
+            return readsParameter(arrayAccess.array, offset) || readsParameter(arrayAccess.index, offset);
+        return false;
+    }
+
     @Override
     public void visit(ArrayAccess arrayAccess) {
-        arrayAccess.array.accept(this);
-        Register index = pushReg();
+        // the ershov numbers describe the registers needed when every dimension is evaluated on its own
+        if (options.arrayFlattening && !options.ershovOptimization && ArrayAccesses.hasElements(arrayAccess)) {
+            emitFlattenedAccess(ArrayAccesses.levels(arrayAccess));
+            return;
+        }
+
+        ArrayType type = (ArrayType) arrayAccess.array.dataType;
+        boolean prevShouldLoad = shouldLoad;
+        Register array, index;
+        Address arrayAddress;
+
+        // a literal index in bounds needs no check, its offset is added to the address directly
+        if (options.immediateSelection && arrayAccess.index instanceof IntLiteral literal
+                && literal.value >= 0 && literal.value < type.arraySize) {
+            arrayAddress = address(arrayAccess.array);
+            int offset = literal.value * type.baseType.byteSize;
+            if (options.addressFolding)
+                address = new Address(arrayAddress.base, arrayAddress.displacement + offset);
+            else if (offset != 0)
+                output.emitInstruction("add", register, register, offset);
+            return;
+        }
+
+        if (options.ershovOptimization && ErshovNumbering.isIndexFirst(arrayAccess)) {
+            shouldLoad = true;
+            arrayAccess.index.accept(this);
+            shouldLoad = prevShouldLoad;
+
+            // check the index before the array is evaluated, so that a single register is needed meanwhile
+            pushReg();
+            output.emitInstruction("add", register, regNull, type.arraySize);
+            output.emitInstruction("bgeu", register.previous(), register, "_indexError");
+            popReg();
+
+            var registers = evaluateNext(arrayAccess.array, arrayAccess.array.ershovNumber);
+            arrayAddress = address;
+            index = registers.first;
+            array = arrayAddress.base(registers.second);
+        } else {
+            arrayAddress = address(arrayAccess.array);
+            shouldLoad = true;
+            if (arrayAddress.base.isFreeUse()) {
+                var registers = evaluateNext(arrayAccess.index, arrayAccess.index.ershovNumber);
+                array = arrayAddress.base(registers.first);
+                index = registers.second;
+            } else {
+                // the array is addressed relative to the frame, so the index can use the current register
+                arrayAccess.index.accept(this);
+                array = arrayAddress.base;
+                index = register;
+            }
+            shouldLoad = prevShouldLoad;
+
+            // push array length
+            pushReg();
+            Register size = pushReg();
+            output.emitInstruction("add", size, regNull, type.arraySize);
+            output.emitInstruction("bgeu", index, size, "_indexError");
+            popReg();
+            popReg();
+        }
+
+        output.emitInstruction("mul", index, index, type.baseType.byteSize);
+        output.emitInstruction("add", register, array, index);
+        address = new Address(register, arrayAddress.displacement);
+    }
+
+    /**
+     * Computes the address of an element of a possibly multi-dimensional array in one step. The indices are combined
+     * with the Horner scheme: the sum of the indices so far is multiplied by the size of the next dimension, before the
+     * next index is added. The sum is scaled to bytes once at the end and added to the address of the array. A literal
+     * index within bounds becomes part of the displacement, every other index is checked right after it has been
+     * evaluated, so that errors are detected in the same order as before.
+     */
+    private void emitFlattenedAccess(List<ArrayAccess> levels) {
+        Address arrayAddress = address(levels.get(0).array);
+        boolean baseInRegister = arrayAddress.base.isFreeUse();
+        if (baseInRegister) pushReg();
+
         boolean prevShouldLoad = shouldLoad;
         shouldLoad = true;
-        arrayAccess.index.accept(this);
+        int displacement = 0;
+        int elementSize = 0; // the size of the elements counted by the sum in the current register, 0 if there is none
+        for (ArrayAccess level : levels) {
+            ArrayType type = (ArrayType) level.array.dataType;
+            if (ArrayAccesses.isIndexInBounds(level)) {
+                displacement += ((IntLiteral) level.index).value * type.baseType.byteSize;
+                continue;
+            }
+            if (elementSize == 0) {
+                level.index.accept(this);
+                emitIndexCheck(register, type.arraySize);
+            } else {
+                Register index = pushReg();
+                level.index.accept(this);
+                emitIndexCheck(index, type.arraySize);
+                popReg();
+                emitScale(register, elementSize / type.baseType.byteSize);
+                output.emitInstruction("add", register, register, index);
+            }
+            elementSize = type.baseType.byteSize;
+        }
         shouldLoad = prevShouldLoad;
-        pushReg();
 
-        // push array length
-        ArrayType type = (ArrayType) arrayAccess.array.dataType;
-        output.emitInstruction("add", register, regNull, type.arraySize);
-        output.emitInstruction("bgeu", index, register, "_indexError");
-        Register offset = popReg();
-        output.emitInstruction("mul", register, register, type.baseType.byteSize);
+        if (elementSize != 0) {
+            emitScale(register, elementSize);
+            Register sum = register;
+            if (baseInRegister) popReg();
+            output.emitInstruction("add", register, arrayAddress.base, sum);
+            arrayAddress = new Address(register, arrayAddress.displacement);
+        } else if (baseInRegister) {
+            popReg();
+        }
 
-        popReg();
-        output.emitInstruction("add", register, register, offset);
+        if (options.addressFolding) {
+            address = new Address(arrayAddress.base, arrayAddress.displacement + displacement);
+        } else {
+            if (displacement != 0)
+                output.emitInstruction("add", register, register, displacement);
+            address = new Address(register, 0);
+        }
+    }
+
+    /**
+     * Emits the check of an index against the size of its dimension, using the register following the index.
+     */
+    private void emitIndexCheck(Register index, int arraySize) {
+        Register size = index.next();
+        if (!size.isFreeUse())
+            throw SplError.RegisterOverflow();
+        output.emitInstruction("add", size, regNull, arraySize);
+        output.emitInstruction("bgeu", index, size, "_indexError");
+    }
+
+    /**
+     * Multiplies a register by a constant factor, which is done by a shift if the factor is a power of two.
+     */
+    private void emitScale(Register register, int factor) {
+        if (factor == 1) return;
+        if (Integer.bitCount(factor) == 1)
+            output.emitInstruction("sll", register, register, Integer.numberOfTrailingZeros(factor));
+        else
+            output.emitInstruction("mul", register, register, factor);
     }
 
     @Override
@@ -235,43 +710,71 @@ public class CodeGenerator extends DoNothingVisitor {
         RecordType type = (RecordType) fieldAccess.variable.dataType;
         boolean prev = shouldLoad;
 
-        fieldAccess.variable.accept(this);
+        Address record = address(fieldAccess.variable);
 
-        int offset = 0;
-        for (VariableDeclaration var : type.fields) {
-            if (var.name.equals(fieldAccess.field) && offset != 0)
-                output.emitInstruction("add", register, register, offset);
-            offset += var.typeExpression.dataType.byteSize;
-        }
+        int offset = type.field(fieldAccess.field).offset();
+        if (options.addressFolding)
+            address = new Address(record.base, record.displacement + offset);
+        else if (offset != 0)
+            output.emitInstruction("add", register, register, offset);
 
         shouldLoad = prev;
     }
 
     @Override
     public void visit(VariableExpression variableExpression) {
-        variableExpression.variable.accept(this);
+        Address address = address(variableExpression.variable);
         if (shouldLoad)
-            output.emitInstruction("ldw", register, register, 0);
+            output.emitInstruction("ldw", register, address.base, address.displacement);
+        else
+            emitAddress(address);
     }
 
     @Override
     public void visit(NamedVariable namedVariable) {
         VariableEntry entry = (VariableEntry) table.lookup(namedVariable.name);
-        output.emitInstruction("add", register, regFP, entry.offset);
+        if (options.addressFolding) {
+            if (entry.isReference) {
+                output.emitInstruction("ldw", register, frameBase, frameBaseOffset + entry.offset);
+                address = new Address(register, 0);
+            } else {
+                address = new Address(frameBase, frameBaseOffset + entry.offset);
+            }
+            return;
+        }
+        output.emitInstruction("add", register, frameBase, frameBaseOffset + entry.offset);
         if (entry.isReference)
             output.emitInstruction("ldw", register, register, 0);
+        address = new Address(register, 0);
     }
 
     @Override
     public void visit(IntLiteral intLiteral) {
-        output.emitInstruction("add", register, regNull, intLiteral.value);
+        if (options.immediateSelection)
+            emitLoadImmediate(output, register, intLiteral.value);
+        else
+            output.emitInstruction("add", register, regNull, intLiteral.value);
+    }
+
+    /**
+     * Emits the code loading a constant into a register. A constant not fitting into an immediate field is composed of
+     * its upper and lower half, instead of letting the assembler do this via $1.
+     */
+    static void emitLoadImmediate(CodePrinter output, Register register, int value) {
+        if (Immediate.isEncodable(value)) {
+            output.emitInstruction("add", register, regNull, value);
+            return;
+        }
+        output.emitInstruction("ldhi", register, value);
+        if ((value & 0xFFFF) != 0)
+            output.emitInstruction("or", register, register, value & 0xFFFF);
     }
 
     /**
      * Emits needed import statements, to allow usage of the predefined functions and sets the correct settings
      * for the assembler.
      */
-    private void assemblerProlog() {
+    static void assemblerProlog(CodePrinter output) {
         output.emitImport("printi");
         output.emitImport("printc");
         output.emitImport("readi");
@@ -1,68 +1,110 @@
 package de.thm.mni.compilerbau.phases._06_codegen;
 
 import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
 
 class CodePrinter {
     private final PrintWriter outputFile;
+    private final PeepholeOptimizer optimizer;
+    private final List<AssemblyLine> procedure = new ArrayList<>();
+    private String procedureName;
 
     CodePrinter(PrintWriter outputFile) {
+        this(outputFile, null);
+    }
+
+    /**
+     * @param optimizer The optimizer every procedure is passed through before it is printed, or null.
+     */
+    CodePrinter(PrintWriter outputFile, PeepholeOptimizer optimizer) {
         this.outputFile = outputFile;
+        this.optimizer = optimizer;
     }
 
     void emitInstruction(String opcode, Register r1, Register r2, Register r3) {
-        outputFile.printf("\t%s\t%s,%s,%s\n", opcode, r1, r2, r3);
+        print(AssemblyLine.instruction(opcode, null, null, r1, r2, r3));
     }
 
     void emitInstruction(String opcode, Register r1, Register r2, int value) {
-        outputFile.printf("\t%s\t%s,%s,%d\n", opcode, r1, r2, value);
+        print(AssemblyLine.instruction(opcode, null, null, r1, r2, value));
     }
 
     void emitInstruction(String opcode, Register r1, Register r2, String label) {
-        outputFile.printf("\t%s\t%s,%s,%s\n", opcode, r1, r2, label);
+        print(AssemblyLine.instruction(opcode, null, null, r1, r2, label));
+    }
+
+    void emitInstruction(String opcode, Register r1, int value) {
+        print(AssemblyLine.instruction(opcode, null, null, r1, value));
     }
 
     void emitInstruction(String opcode, Register r1) {
-        outputFile.printf("\t%s\t%s\n", opcode, r1);
+        print(AssemblyLine.instruction(opcode, null, null, r1));
     }
 
     void emitInstruction(String opcode, String label) {
-        outputFile.printf("\t%s\t%s\n", opcode, label);
+        print(AssemblyLine.instruction(opcode, null, null, label));
     }
 
     void emitInstruction(String opcode, Register r1, Register r2, Register r3, String comment) {
-        outputFile.printf("\t%s\t%s,%s,%s\t\t; %s\n", opcode, r1, r2, r3, comment);
+        print(AssemblyLine.instruction(opcode, comment, "\t\t", r1, r2, r3));
     }
 
     void emitInstruction(String opcode, Register r1, Register r2, int value, String comment) {
-        outputFile.printf("\t%s\t%s,%s,%d\t\t; %s\n", opcode, r1, r2, value, comment);
+        print(AssemblyLine.instruction(opcode, comment, "\t\t", r1, r2, value));
     }
 
     void emitInstruction(String opcode, Register r1, Register r2, String label, String comment) {
-        outputFile.printf("\t%s\t%s,%s,%s\t\t; %s\n", opcode, r1, r2, label, comment);
+        print(AssemblyLine.instruction(opcode, comment, "\t\t", r1, r2, label));
     }
 
     void emitInstruction(String opcode, Register r1, String comment) {
-        outputFile.printf("\t%s\t%s\t\t\t; %s\n", opcode, r1, comment);
+        print(AssemblyLine.instruction(opcode, comment, "\t\t\t", r1));
     }
 
     void emitInstruction(String opcode, String label, String comment) {
-        outputFile.printf("\t%s\t%s\t\t; %s\n", opcode, label, comment);
+        print(AssemblyLine.instruction(opcode, comment, "\t\t", label));
     }
 
     void emitLabel(String label) {
-        outputFile.printf("%s:\n", label);
+        print(AssemblyLine.label(label));
     }
 
     void emitImport(String label) {
-        outputFile.printf("\t.import\t%s\n", label);
+        print(AssemblyLine.directive("\t.import\t" + label));
+    }
+
+    /**
+     * Starts a new procedure, the procedure emitted before is printed first.
+     */
+    void beginProcedure(String name) {
+        flush();
+        procedureName = name;
     }
 
     void emitExport(String label) {
-        outputFile.printf("\n\t.export\t%s\n", label);
+        print(AssemblyLine.directive("\n\t.export\t" + label));
     }
 
     void emit(String str) {
-        outputFile.println(str);
+        print(AssemblyLine.directive(str));
+    }
+
+    /**
+     * Prints the buffered procedure, after it has been passed through the optimizer.
+     * Has to be called after the last procedure has been emitted.
+     */
+    void flush() {
+        if (procedure.isEmpty()) return;
+        int saved = optimizer.optimize(procedure);
+        procedure.forEach(line -> outputFile.printf("%s\n", line));
+        if (procedureName != null)
+            outputFile.printf("\t\t\t\t\t; peephole: %d instructions saved in %s\n", saved, procedureName);
+        procedure.clear();
     }
-}
 
+    private void print(AssemblyLine line) {
+        if (optimizer != null) procedure.add(line);
+        else outputFile.printf("%s\n", line);
+    }
+}
@@ -0,0 +1,285 @@
+package de.thm.mni.compilerbau.phases._06_codegen;
+
+import de.thm.mni.compilerbau.CommandLineOptions;
+import de.thm.mni.compilerbau.phases._05b_ir.*;
+import de.thm.mni.compilerbau.utils.SplError;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static de.thm.mni.compilerbau.phases._06_codegen.CodeGenerator.*;
+
+/**
+ * This class is used to generate the assembly code for a program in the intermediate representation.
+ * This code is emitted via the {@link CodePrinter} in the output field of this class.
+ * <p>
+ * The blocks of every procedure are emitted in layout order, jumps to the following block are omitted. The virtual
+ * registers of a block are mapped to the registers available for free use, a register is reused as soon as the last
+ * use of its virtual register has been emitted.
+ * <p>
+ * With --regalloc the virtual registers of a procedure are assigned by the {@link LinearScanAllocator} instead, so
+ * values can be kept in registers across blocks.
+ */
+public class IrCodeGenerator implements InstructionVisitor {
+    final CommandLineOptions options;
+    final CodePrinter output;
+    private IrProgram program;
+    private ControlFlowGraph graph;
+    private BasicBlock next;
+    private Register frameBase;
+    private int frameBaseOffset;
+    private LinearScanAllocator allocator;
+
+    private final Map<VirtualRegister, Register> assignment = new HashMap<>();
+    private final boolean[] occupied = new boolean[32];
+
+    /**
+     * Initializes the code generator.
+     *
+     * @param options The command line options passed to the compiler
+     * @param output  The PrintWriter to the output file.
+     */
+    public IrCodeGenerator(CommandLineOptions options, PrintWriter output) throws IOException {
+        this.options = options;
+        this.output = new CodePrinter(output, options.peepholeRules == null ? null : new PeepholeOptimizer(options.peepholeRules));
+    }
+
+    public void generateCode(IrProgram program) {
+        this.program = program;
+        assemblerProlog(output);
+        program.procedures.forEach(this::generateProcedure);
+        output.flush();
+    }
+
+    private void generateProcedure(ControlFlowGraph graph) {
+        this.graph = graph;
+        // the allocator may need spill slots, which changes the frame size
+        allocator = options.registerAllocation ? new LinearScanAllocator(graph) : null;
+        frameBase = frameBase(graph.layout);
+        frameBaseOffset = frameBaseOffset(graph.layout);
+
+        for (int i = 0; i < graph.blocks.size(); i++)
+            assignLabels(graph.blocks.get(i), i + 1 < graph.blocks.size() ? graph.blocks.get(i + 1) : null);
+
+        output.beginProcedure(graph.name.toString());
+        if (graph.isExported) output.emitExport(graph.name.toString());
+        output.emitLabel(graph.name.toString());
+        emitPrologue(output, graph.layout);
+
+        for (int i = 0; i < graph.blocks.size(); i++) {
+            next = i + 1 < graph.blocks.size() ? graph.blocks.get(i + 1) : null;
+            if (allocator != null)
+                generateAllocatedBlock(graph.blocks.get(i));
+            else
+                generateBlock(graph.blocks.get(i));
+        }
+    }
+
+    /**
+     * Gives every block which is jumped to from the given block a label, if it does not have one yet.
+     */
+    private void assignLabels(BasicBlock block, BasicBlock next) {
+        for (BasicBlock successor : block.successors())
+            if (successor != next && successor.label < 0)
+                successor.label = program.newLabel();
+        // a branch falling through to its true target branches to its false target, even if that is the next block
+        if (block.terminator instanceof Terminator.Branch) {
+            Terminator.Branch branch = (Terminator.Branch) block.terminator;
+            if (branch.trueTarget == next && branch.falseTarget.label < 0)
+                branch.falseTarget.label = program.newLabel();
+        }
+    }
+
+    private void generateBlock(BasicBlock block) {
+        if (block.label >= 0)
+            output.emitLabel(block.name());
+
+        // the position of the last use of every register in this block, the terminator is at the last position
+        Map<VirtualRegister, Integer> lastUse = new HashMap<>();
+        for (int i = 0; i <= block.instructions.size(); i++) {
+            Instruction instruction = i < block.instructions.size() ? block.instructions.get(i) : block.terminator;
+            for (VirtualRegister used : instruction.used())
+                lastUse.put(used, i);
+        }
+
+        assignment.clear();
+        Arrays.fill(occupied, false);
+        for (int i = 0; i <= block.instructions.size(); i++) {
+            Instruction instruction = i < block.instructions.size() ? block.instructions.get(i) : block.terminator;
+            for (VirtualRegister used : instruction.used()) {
+                if (!assignment.containsKey(used))
+                    throw new IllegalStateException(String.format("%s is used in %s before it is defined", used, block.name()));
+                if (lastUse.get(used) == i)
+                    occupied[assignment.get(used).number] = false;
+            }
+
+            VirtualRegister defined = instruction.defined();
+            if (defined != null)
+                assignment.put(defined, allocate());
+
+            instruction.accept(this);
+
+            if (defined != null && !lastUse.containsKey(defined))
+                occupied[assignment.get(defined).number] = false;
+        }
+    }
+
+    /**
+     * Emits a block using the registers assigned by the {@link LinearScanAllocator}. Spilled registers are loaded into
+     * scratch registers before and stored after the instruction using them, registers live across a call are saved
+     * around it.
+     */
+    private void generateAllocatedBlock(BasicBlock block) {
+        if (block.label >= 0)
+            output.emitLabel(block.name());
+
+        for (Instruction instruction : Liveness.instructions(block)) {
+            assignment.clear();
+            int scratch = 0;
+            for (VirtualRegister used : instruction.used()) {
+                if (assignment.containsKey(used)) continue;
+                if (allocator.isSpilled(used)) {
+                    Register register = LinearScanAllocator.SCRATCH[scratch++];
+                    output.emitInstruction("ldw", register, frameBase, frameBaseOffset + allocator.slot(used), "reload");
+                    assignment.put(used, register);
+                } else {
+                    assignment.put(used, allocator.register(used));
+                }
+            }
+
+            VirtualRegister defined = instruction.defined();
+            if (defined != null && !allocator.isSpilled(defined))
+                assignment.put(defined, allocator.register(defined));
+            else if (defined != null) // a spilled copy is stored directly from the register it is copied from
+                assignment.put(defined, instruction instanceof Instruction.Move ? reg(((Instruction.Move) instruction).source) : LinearScanAllocator.SCRATCH[0]);
+
+            List<VirtualRegister> saved = instruction instanceof Instruction.Call ? allocator.liveAcross(instruction) : List.of();
+            for (VirtualRegister register : saved)
+                if (!graph.unchangedHomes.contains(register))
+                    output.emitInstruction("stw", allocator.register(register), frameBase, frameBaseOffset + allocator.slot(register), "save");
+
+            instruction.accept(this);
+
+            for (VirtualRegister register : saved)
+                output.emitInstruction("ldw", allocator.register(register), frameBase, frameBaseOffset + allocator.slot(register), "restore");
+            // an argument passed in a register has not been stored to the slot of its parameter yet
+            if (defined != null && allocator.isSpilled(defined)
+                    && (!graph.unchangedHomes.contains(defined) || instruction instanceof Instruction.IncomingArgument))
+                output.emitInstruction("stw", reg(defined), frameBase, frameBaseOffset + allocator.slot(defined), "spill");
+        }
+    }
+
+    /**
+     * @return The lowest register available for free use, which is not occupied.
+     */
+    private Register allocate() {
+        for (Register register = new Register(8); register.isFreeUse(); register = register.next()) {
+            if (!occupied[register.number]) {
+                occupied[register.number] = true;
+                return register;
+            }
+        }
+        throw SplError.RegisterOverflow();
+    }
+
+    private Register reg(VirtualRegister register) {
+        return assignment.get(register);
+    }
+
+    @Override
+    public void visit(Instruction.LoadImmediate loadImmediate) {
+        if (options.immediateSelection)
+            emitLoadImmediate(output, reg(loadImmediate.destination), loadImmediate.value);
+        else
+            output.emitInstruction("add", reg(loadImmediate.destination), regNull, loadImmediate.value);
+    }
+
+    @Override
+    public void visit(Instruction.Move move) {
+        if (reg(move.destination).number != reg(move.source).number)
+            output.emitInstruction("add", reg(move.destination), reg(move.source), regNull);
+    }
+
+    @Override
+    public void visit(Instruction.FrameAddress frameAddress) {
+        output.emitInstruction("add", reg(frameAddress.destination), frameBase, frameBaseOffset + frameAddress.offset);
+    }
+
+    @Override
+    public void visit(Instruction.Load load) {
+        output.emitInstruction("ldw", reg(load.destination), reg(load.address), load.offset);
+    }
+
+    @Override
+    public void visit(Instruction.Store store) {
+        output.emitInstruction("stw", reg(store.value), reg(store.address), store.offset);
+    }
+
+    @Override
+    public void visit(Instruction.StoreArgument storeArgument) {
+        if (storeArgument.register != 0)
+            output.emitInstruction("add", new Register(storeArgument.register), reg(storeArgument.value), regNull, String.format("pass argument #%d", storeArgument.index));
+        else
+            output.emitInstruction("stw", reg(storeArgument.value), regSP, storeArgument.offset, String.format("store argument #%d", storeArgument.index));
+    }
+
+    @Override
+    public void visit(Instruction.IncomingArgument incomingArgument) {
+        output.emitInstruction("add", reg(incomingArgument.destination), new Register(incomingArgument.register), regNull, String.format("argument #%d", incomingArgument.index));
+    }
+
+    @Override
+    public void visit(Instruction.Binary binary) {
+        if (binary.right instanceof Immediate)
+            output.emitInstruction(binary.operator.mnemonic(), reg(binary.destination), reg(binary.left), ((Immediate) binary.right).value);
+        else
+            output.emitInstruction(binary.operator.mnemonic(), reg(binary.destination), reg(binary.left), reg((VirtualRegister) binary.right));
+    }
+
+    @Override
+    public void visit(Instruction.Negate negate) {
+        output.emitInstruction("sub", reg(negate.destination), regNull, reg(negate.operand));
+    }
+
+    @Override
+    public void visit(Instruction.CheckIndex checkIndex) {
+        output.emitInstruction("bgeu", reg(checkIndex.index), reg(checkIndex.size), "_indexError");
+    }
+
+    @Override
+    public void visit(Instruction.Call call) {
+        output.emitInstruction("jal", call.procedure);
+    }
+
+    @Override
+    public void visit(Terminator.Jump jump) {
+        if (jump.target != next)
+            output.emitInstruction("j", jump.target.name());
+    }
+
+    @Override
+    public void visit(Terminator.Branch branch) {
+        if (branch.trueTarget == next) {
+            output.emitInstruction(branch.condition.negate().mnemonic(), reg(branch.left), reg(branch.right), branch.falseTarget.name());
+        } else {
+            output.emitInstruction(branch.condition.mnemonic(), reg(branch.left), reg(branch.right), branch.trueTarget.name());
+            if (branch.falseTarget != next)
+                output.emitInstruction("j", branch.falseTarget.name());
+        }
+    }
+
+    @Override
+    public void visit(Terminator.Return ret) {
+        emitEpilogue(output, graph.layout);
+    }
+
+    @Override
+    public void visit(Terminator.TailCall tailCall) {
+        emitFrameRelease(output, graph.layout);
+        output.emitInstruction("j", tailCall.procedure, "tail call");
+    }
+}
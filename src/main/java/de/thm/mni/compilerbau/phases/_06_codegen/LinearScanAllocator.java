@@ -0,0 +1,173 @@
+package de.thm.mni.compilerbau.phases._06_codegen;
+
+import de.thm.mni.compilerbau.phases._05_varalloc.StackLayout;
+import de.thm.mni.compilerbau.phases._05b_ir.*;
+
+import java.util.*;
+
+/**
+ * This class assigns the virtual registers of a procedure to the registers available for free use, using the linear
+ * scan algorithm of Poletto and Sarkar.
+ * <p>
+ * The instructions are numbered in layout order and every virtual register gets a single live interval, reaching from
+ * the first to the last position it is live at. The intervals are scanned by increasing start, the register of an
+ * interval which has ended is free again. If no register is free, the interval ending last is spilled to a slot in the
+ * stack frame and is loaded into one of the {@link #SCRATCH} registers whenever it is used.
+ * <p>
+ * No register keeps its value across a call, as every procedure may use all registers. A register live across a call
+ * is saved to the slot of its virtual register before and restored after the call.
+ * <p>
+ * With --omitFP, $25 is no frame pointer and is allocated as well, except in exported procedures, whose callers may
+ * expect it to be preserved.
+ */
+class LinearScanAllocator {
+    /**
+     * The registers spilled values are loaded into, they are never allocated.
+     */
+    static final Register[] SCRATCH = {new Register(22), new Register(23)};
+    private static final int FIRST_REGISTER = 8, LAST_REGISTER = 21, FRAME_POINTER = 25;
+
+    private final ControlFlowGraph graph;
+    private final Map<VirtualRegister, Register> registers = new HashMap<>();
+    private final Map<VirtualRegister, Integer> slots = new HashMap<>();
+    private final Map<Instruction, List<VirtualRegister>> liveAcrossCall = new HashMap<>();
+    private int[] start, end;
+
+    LinearScanAllocator(ControlFlowGraph graph) {
+        this.graph = graph;
+        computeIntervals();
+        List<VirtualRegister> intervals = scan();
+
+        // all slots are assigned before the frame size is used: spilled registers and registers live across calls
+        intervals.stream().filter(this::isSpilled).forEach(this::slot);
+        liveAcrossCall.values().forEach(live -> live.forEach(this::slot));
+    }
+
+    /**
+     * @return The register assigned to a virtual register, which must not be spilled.
+     */
+    Register register(VirtualRegister register) {
+        return registers.get(register);
+    }
+
+    boolean isSpilled(VirtualRegister register) {
+        return !registers.containsKey(register);
+    }
+
+    /**
+     * @return The offset of the frame slot of a virtual register, relative to the frame pointer.
+     */
+    int slot(VirtualRegister register) {
+        Integer slot = slots.get(register);
+        if (slot != null) return slot;
+
+        slot = graph.homeSlots.get(register);
+        if (slot == null) {
+            StackLayout layout = graph.layout;
+            slot = layout.spillSlotOffset(layout.spillAreaSize / 4);
+            layout.spillAreaSize += 4;
+        }
+        slots.put(register, slot);
+        return slot;
+    }
+
+    /**
+     * @return The virtual registers kept in a register, which have to be saved across the given call.
+     */
+    List<VirtualRegister> liveAcross(Instruction call) {
+        return liveAcrossCall.getOrDefault(call, List.of()).stream().filter(register -> !isSpilled(register)).toList();
+    }
+
+    private void extend(int register, int position) {
+        start[register] = Math.min(start[register], position);
+        end[register] = Math.max(end[register], position);
+    }
+
+    /**
+     * Calculates the live interval of every virtual register. A use is located at an even, a definition at the
+     * following odd position, so that an instruction may define a register whose last use is in the same instruction.
+     */
+    private void computeIntervals() {
+        Liveness liveness = new Liveness(graph);
+        start = new int[graph.registerCount()];
+        end = new int[graph.registerCount()];
+        Arrays.fill(start, Integer.MAX_VALUE);
+        Arrays.fill(end, -1);
+
+        int position = 0;
+        for (BasicBlock block : graph.blocks) {
+            int blockStart = position;
+            liveness.liveIn(block).stream().forEach(register -> extend(register, blockStart));
+
+            List<Instruction> instructions = Liveness.instructions(block);
+            List<BitSet> liveAfter = liveness.liveAfter(block);
+            for (int i = 0; i < instructions.size(); i++) {
+                Instruction instruction = instructions.get(i);
+                for (VirtualRegister used : instruction.used())
+                    extend(used.number, position);
+                if (instruction.defined() != null)
+                    extend(instruction.defined().number, position + 1);
+                if (instruction instanceof Instruction.Call) {
+                    List<VirtualRegister> live = new ArrayList<>();
+                    liveAfter.get(i).stream().forEach(register -> live.add(registerByNumber(register)));
+                    liveAcrossCall.put(instruction, live);
+                }
+                position += 2;
+            }
+
+            int blockEnd = position - 1;
+            liveness.liveOut(block).stream().forEach(register -> extend(register, blockEnd));
+        }
+    }
+
+    private final Map<Integer, VirtualRegister> byNumber = new HashMap<>();
+
+    private VirtualRegister registerByNumber(int number) {
+        if (byNumber.isEmpty())
+            for (BasicBlock block : graph.blocks)
+                for (Instruction instruction : Liveness.instructions(block)) {
+                    instruction.used().forEach(register -> byNumber.put(register.number, register));
+                    if (instruction.defined() != null) byNumber.put(instruction.defined().number, instruction.defined());
+                }
+        return byNumber.get(number);
+    }
+
+    private List<VirtualRegister> scan() {
+        List<VirtualRegister> intervals = new ArrayList<>();
+        for (int number = 0; number < graph.registerCount(); number++)
+            if (end[number] >= 0) intervals.add(registerByNumber(number));
+        intervals.sort(Comparator.comparingInt((VirtualRegister register) -> start[register.number]).thenComparingInt(register -> register.number));
+
+        TreeSet<Integer> free = new TreeSet<>();
+        for (int number = FIRST_REGISTER; number <= LAST_REGISTER; number++)
+            free.add(number);
+        if (graph.layout.isFramePointerOmitted && !graph.isExported)
+            free.add(FRAME_POINTER);
+        List<VirtualRegister> active = new ArrayList<>(); // sorted by increasing end
+
+        for (VirtualRegister current : intervals) {
+            while (!active.isEmpty() && end[active.get(0).number] < start[current.number])
+                free.add(registers.get(active.remove(0)).number);
+
+            if (!free.isEmpty()) {
+                registers.put(current, new Register(free.pollFirst()));
+                insertActive(active, current);
+                continue;
+            }
+
+            VirtualRegister last = active.get(active.size() - 1);
+            if (end[last.number] > end[current.number]) {
+                registers.put(current, registers.remove(last));
+                active.remove(last);
+                insertActive(active, current);
+            }
+        }
+        return intervals;
+    }
+
+    private void insertActive(List<VirtualRegister> active, VirtualRegister register) {
+        int index = 0;
+        while (index < active.size() && end[active.get(index).number] <= end[register.number]) index++;
+        active.add(index, register);
+    }
+}
@@ -0,0 +1,145 @@
+package de.thm.mni.compilerbau.phases._06_codegen;
+
+import java.util.*;
+
+/**
+ * This class improves the assembly code of a procedure by applying a set of {@link PeepholeRule}s to every line,
+ * until none of them changes the code anymore.
+ * <p>
+ * Rules which remove the computation of a value have to know whether the register it is computed into is still
+ * read afterwards. This is answered by a liveness analysis over the instructions of the procedure, which is repeated
+ * after every change. Only the registers available for free use are tracked, all other registers are always assumed
+ * to be live.
+ */
+class PeepholeOptimizer {
+    private static final int TRACKED = AssemblyLine.CLOBBERED_BY_CALL;
+
+    private final Set<PeepholeRule> rules;
+    private List<AssemblyLine> code;
+    private int[] liveOut;
+
+    /**
+     * @param rules The rules to apply.
+     */
+    PeepholeOptimizer(Set<PeepholeRule> rules) {
+        this.rules = rules;
+    }
+
+    /**
+     * Optimizes the code of a procedure in place.
+     *
+     * @param code The lines of the procedure.
+     * @return The number of instructions saved.
+     */
+    int optimize(List<AssemblyLine> code) {
+        this.code = code;
+        this.liveOut = null;
+        int before = instructionCount();
+
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int index = 0; index < code.size(); index++) {
+                for (PeepholeRule rule : rules) {
+                    if (index < code.size() && rule.apply(this, index)) {
+                        computeLiveness();
+                        changed = true;
+                    }
+                }
+            }
+        }
+        return before - instructionCount();
+    }
+
+    private int instructionCount() {
+        return (int) code.stream().filter(AssemblyLine::isInstruction).count();
+    }
+
+    List<AssemblyLine> code() {
+        return code;
+    }
+
+    AssemblyLine line(int index) {
+        return code.get(index);
+    }
+
+    /**
+     * @return true if the value of the register after the line at the given index is never read.
+     */
+    boolean isDeadAfter(int register, int index) {
+        if (register < 0 || (TRACKED & 1 << register) == 0) return false;
+        if (liveOut == null) computeLiveness();
+        return (liveOut[index] & 1 << register) == 0;
+    }
+
+    /**
+     * Searches the next line reading a register, if it follows in straight-line code.
+     *
+     * @param register The register read.
+     * @param from     The index of the line defining the register.
+     * @param keep     Registers which must not be overwritten before the register is read.
+     * @return The index of the line reading the register or -1, if the register is overwritten, control flow is
+     * reached first or the line reading it is not executed directly after all lines in between.
+     */
+    int findReader(int register, int from, int keep) {
+        for (int index = from + 1; index < code.size(); index++) {
+            AssemblyLine line = code.get(index);
+            if (!line.isInstruction()) return -1;
+            if ((line.reads() & 1 << register) != 0) return index;
+            if ((line.writes() & (1 << register | keep)) != 0 || line.changesControlFlow()) return -1;
+        }
+        return -1;
+    }
+
+    /**
+     * @return The first instruction following a label in this procedure or null, if it is not defined here.
+     */
+    AssemblyLine instructionAt(String label) {
+        for (int index = 0; index < code.size(); index++) {
+            if (!code.get(index).isLabel() || !code.get(index).opcode.equals(label)) continue;
+            while (index < code.size() && !code.get(index).isInstruction()) index++;
+            return index < code.size() ? code.get(index) : null;
+        }
+        return null;
+    }
+
+    /**
+     * @return true if the label is defined by one of the labels directly following the given line.
+     */
+    boolean isFollowedBy(int index, String label) {
+        for (int next = index + 1; next < code.size() && code.get(next).isLabel(); next++)
+            if (code.get(next).opcode.equals(label)) return true;
+        return false;
+    }
+
+    void remove(int index) {
+        code.remove(index);
+    }
+
+    private void computeLiveness() {
+        Map<String, Integer> labels = new HashMap<>();
+        for (int index = 0; index < code.size(); index++)
+            if (code.get(index).isLabel()) labels.put(code.get(index).opcode, index);
+
+        int[] liveIn = new int[code.size()];
+        liveOut = new int[code.size()];
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int index = code.size() - 1; index >= 0; index--) {
+                AssemblyLine line = code.get(index);
+                int out = 0;
+                boolean fallsThrough = !line.isJump() && !line.opcode.equals("jr");
+                if (fallsThrough && index + 1 < code.size()) out |= liveIn[index + 1];
+                if (line.target() != null && labels.containsKey(line.target())) out |= liveIn[labels.get(line.target())];
+
+                int in = (out & ~line.writes()) | line.reads();
+                liveOut[index] = out;
+                if (in != liveIn[index]) {
+                    liveIn[index] = in;
+                    changed = true;
+                }
+            }
+        }
+    }
+}
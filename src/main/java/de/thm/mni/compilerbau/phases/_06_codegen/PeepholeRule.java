@@ -0,0 +1,209 @@
+package de.thm.mni.compilerbau.phases._06_codegen;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The rules applied by the {@link PeepholeOptimizer}. Every rule looks at the line at a given index and rewrites the
+ * code around it, if its pattern matches there.
+ */
+public enum PeepholeRule {
+    /**
+     * Folds an address computed by <code>add $a,$b,c</code> into the displacement of the load or store using it.
+     */
+    ADDRESS("address") {
+        @Override
+        boolean apply(PeepholeOptimizer optimizer, int index) {
+            AssemblyLine add = optimizer.line(index);
+            if (!add.isInstruction() || !add.opcode.equals("add") || add.register(1) < 0 || add.immediate(2) == null)
+                return false;
+
+            int address = add.register(0);
+            int base = add.register(1);
+            int reader = optimizer.findReader(address, index, 1 << base);
+            if (reader < 0) return false;
+
+            AssemblyLine access = optimizer.line(reader);
+            if (!(access.isLoad() || access.isStore()) || access.register(1) != address || access.immediate(2) == null)
+                return false;
+            if (access.isStore() && access.register(0) == address) return false;
+            if (!optimizer.isDeadAfter(address, reader) && (access.writes() & 1 << address) == 0) return false;
+
+            int displacement = add.immediate(2) + access.immediate(2);
+            if (!isSigned16(displacement)) return false;
+            access.operands[1] = add.operands[1];
+            access.operands[2] = Integer.toString(displacement);
+            optimizer.remove(index);
+            return true;
+        }
+    },
+
+    /**
+     * Uses a constant loaded by <code>add $r,$0,c</code> as the immediate operand of the instruction using it, or
+     * replaces the register by $0 if the constant is zero.
+     */
+    IMMEDIATE("immediate") {
+        @Override
+        boolean apply(PeepholeOptimizer optimizer, int index) {
+            AssemblyLine constant = optimizer.line(index);
+            if (!constant.isInstruction() || !constant.opcode.equals("add") || constant.register(1) != 0 || constant.immediate(2) == null)
+                return false;
+
+            int register = constant.register(0);
+            int value = constant.immediate(2);
+            int reader = optimizer.findReader(register, index, 0);
+            if (reader < 0) return false;
+
+            AssemblyLine user = optimizer.line(reader);
+            if (!optimizer.isDeadAfter(register, reader) && (user.writes() & 1 << register) == 0) return false;
+
+            String name = constant.operands[0];
+            if (value == 0) {
+                for (int operand = user.firstReadOperand(); operand < user.operands.length; operand++)
+                    if (user.operands[operand].equals(name)) user.operands[operand] = "$0";
+            } else {
+                if (!IMMEDIATE_RANGE.containsKey(user.opcode) || user.operands.length != 3 || user.register(1) < 0)
+                    return false;
+                if (user.operands[1].equals(name) && COMMUTATIVE.contains(user.opcode) && user.register(2) >= 0) {
+                    user.operands[1] = user.operands[2];
+                    user.operands[2] = name;
+                }
+                if (user.operands[1].equals(name) || !user.operands[2].equals(name)) return false;
+                if (value < IMMEDIATE_RANGE.get(user.opcode)[0] || value > IMMEDIATE_RANGE.get(user.opcode)[1])
+                    return false;
+                user.operands[2] = Integer.toString(value);
+            }
+            optimizer.remove(index);
+            return true;
+        }
+    },
+
+    /**
+     * Removes jumps and branches to a label directly following them, inverts a branch over a jump and lets jumps to
+     * another jump go to its target directly.
+     */
+    JUMP("jump") {
+        @Override
+        boolean apply(PeepholeOptimizer optimizer, int index) {
+            AssemblyLine jump = optimizer.line(index);
+            if (jump.target() == null) return false;
+
+            if (optimizer.isFollowedBy(index, jump.target())) {
+                optimizer.remove(index);
+                return true;
+            }
+
+            if (jump.isBranch() && index + 1 < optimizer.code().size()) {
+                AssemblyLine next = optimizer.line(index + 1);
+                if (next.isJump() && optimizer.isFollowedBy(index + 1, jump.target())) {
+                    jump.opcode = NEGATED_BRANCHES.get(jump.opcode);
+                    jump.setTarget(next.target());
+                    optimizer.remove(index + 1);
+                    return true;
+                }
+            }
+
+            // follow a chain of jumps, unless it ends in a loop
+            Set<String> visited = new HashSet<>();
+            String destination = jump.target();
+            while (visited.add(destination)) {
+                AssemblyLine next = optimizer.instructionAt(destination);
+                if (next == null || !next.isJump()) break;
+                destination = next.target();
+            }
+            if (destination.equals(jump.target())) return false;
+            jump.setTarget(destination);
+            return true;
+        }
+    },
+
+    /**
+     * Merges a label directly following another label into it and removes labels which are never jumped to.
+     * Only the numbered labels created by the code generator are touched.
+     */
+    LABEL("label") {
+        @Override
+        boolean apply(PeepholeOptimizer optimizer, int index) {
+            AssemblyLine label = optimizer.line(index);
+            if (!label.isLabel() || !label.opcode.matches("L\\d+")) return false;
+
+            if (index > 0 && optimizer.line(index - 1).isLabel()) {
+                String replacement = optimizer.line(index - 1).opcode;
+                for (AssemblyLine line : optimizer.code())
+                    if (label.opcode.equals(line.target())) line.setTarget(replacement);
+                optimizer.remove(index);
+                return true;
+            }
+
+            for (AssemblyLine line : optimizer.code())
+                if (label.opcode.equals(line.target())) return false;
+            optimizer.remove(index);
+            return true;
+        }
+    },
+
+    /**
+     * Removes moves of a register to itself and computations whose result is never read. A value computed directly
+     * before it is moved to another register is computed into that register instead, if it is not read afterwards.
+     */
+    MOVE("move") {
+        @Override
+        boolean apply(PeepholeOptimizer optimizer, int index) {
+            AssemblyLine move = optimizer.line(index);
+            if (!move.isInstruction() || !SIDE_EFFECT_FREE.contains(move.opcode) || move.register(0) < 0) return false;
+
+            boolean isMove = move.operands.length == 3 && NEUTRAL_ZERO.contains(move.opcode)
+                    && (move.operands[2].equals("$0") || move.operands[2].equals("0"));
+            if (isMove && move.operands[0].equals(move.operands[1])) {
+                optimizer.remove(index);
+                return true;
+            }
+            if (optimizer.isDeadAfter(move.register(0), index)) {
+                optimizer.remove(index);
+                return true;
+            }
+
+            AssemblyLine previous = index > 0 ? optimizer.line(index - 1) : null;
+            if (!isMove || move.register(1) <= 0 || previous == null || !previous.isInstruction()
+                    || !(SIDE_EFFECT_FREE.contains(previous.opcode) || previous.isLoad())
+                    || previous.register(0) != move.register(1) || !optimizer.isDeadAfter(move.register(1), index))
+                return false;
+            previous.operands[0] = move.operands[0];
+            optimizer.remove(index);
+            return true;
+        }
+    };
+
+    private static final Set<String> SIDE_EFFECT_FREE = Set.of("add", "sub", "mul", "mulu", "and", "or", "xor", "xnor", "sll", "slr", "sar", "ldhi");
+    private static final Set<String> NEUTRAL_ZERO = Set.of("add", "sub", "or", "xor", "sll", "slr", "sar");
+    private static final Set<String> COMMUTATIVE = Set.of("add", "mul", "mulu", "and", "or", "xor");
+    private static final Map<String, int[]> IMMEDIATE_RANGE = Map.of(
+            "add", new int[]{-32768, 32767}, "sub", new int[]{-32768, 32767},
+            "mul", new int[]{-32768, 32767}, "div", new int[]{-32768, 32767},
+            "and", new int[]{0, 65535}, "or", new int[]{0, 65535}, "xor", new int[]{0, 65535},
+            "sll", new int[]{0, 31}, "slr", new int[]{0, 31}, "sar", new int[]{0, 31});
+    private static final Map<String, String> NEGATED_BRANCHES = Map.of(
+            "beq", "bne", "bne", "beq", "blt", "bge", "bge", "blt", "ble", "bgt",
+            "bgt", "ble", "bltu", "bgeu", "bgeu", "bltu", "bleu", "bgtu", "bgtu", "bleu");
+
+    /**
+     * The name of the rule used on the command line.
+     */
+    public final String optionName;
+
+    PeepholeRule(String optionName) {
+        this.optionName = optionName;
+    }
+
+    /**
+     * Tries to apply this rule to the line at the given index.
+     *
+     * @return true if the code has been changed.
+     */
+    abstract boolean apply(PeepholeOptimizer optimizer, int index);
+
+    private static boolean isSigned16(int value) {
+        return value >= -32768 && value <= 32767;
+    }
+}
@@ -18,6 +18,13 @@ class Register {
         return number >= 8 && number <= 23;
     }
 
+    /**
+     * @return The number of registers available for free use, that follow this register.
+     */
+    int freeUseFollowing() {
+        return 23 - number;
+    }
+
     /**
      * Returns the register with the number of this
      *
@@ -9,6 +9,7 @@ public class ParameterType {
     public final Type type;
     public final boolean isReference;
     public Integer offset = null; // This value has to be set in phase 5
+    public int register = 0; // Only relevant for --regArgs, the register the argument is passed in or 0 if it is passed on the stack
 
     /**
      * @param type        The semantic type of the parameter. See {@link Type} and its subclasses.
@@ -13,6 +13,7 @@ public class ProcedureEntry implements Entry {
     public final SymbolTable localTable;
     public final List<ParameterType> parameterTypes;
     public final StackLayout stackLayout = new StackLayout();
+    public boolean isExported = true; // Only relevant for --deadProcs, only main is exported then
 
     /**
      * Creates a new {@link Entry} representing a declared SPL procedure.
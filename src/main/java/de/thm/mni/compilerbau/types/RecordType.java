@@ -1,16 +1,54 @@
 package de.thm.mni.compilerbau.types;
 
 import de.thm.mni.compilerbau.absyn.VariableDeclaration;
+import de.thm.mni.compilerbau.table.Identifier;
+
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.stream.Collectors;
 
+/**
+ * Represents record types in spl.
+ * The offset and type of every field are computed once, when the type is constructed, so that a field access can be
+ * resolved without walking the list of fields.
+ */
 public class RecordType extends Type {
 
+    /**
+     * Describes a field of a record.
+     *
+     * @param offset The offset of the field in bytes, starting from the address of the record.
+     * @param type   The type of the field.
+     */
+    public record Field(int offset, Type type) {
+    }
+
     public final List<VariableDeclaration> fields;
+    private final Map<Identifier, Field> fieldsByName = new HashMap<>();
+    private final int hash;
 
     public RecordType(List<VariableDeclaration> fields) {
         super(fields.stream().map(x -> x.typeExpression.dataType.byteSize).reduce(0, Integer::sum));
         this.fields = fields;
+
+        int offset = 0, hash = 0;
+        for (VariableDeclaration field : fields) {
+            Type type = field.typeExpression.dataType;
+            fieldsByName.putIfAbsent(field.name, new Field(offset, type));
+            offset += type.byteSize;
+            hash = 31 * hash + Objects.hash(field.name, type);
+        }
+        this.hash = hash;
+    }
+
+    /**
+     * @param name The name of the field.
+     * @return The field with the given name or null, if the record has no such field.
+     */
+    public Field field(Identifier name) {
+        return fieldsByName.get(name);
     }
 
     @Override
@@ -18,6 +56,11 @@ public class RecordType extends Type {
         return String.format("record {%s}", fields.stream().map(x -> x.toString()).collect(Collectors.joining()));
     }
 
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (this  == obj)
@@ -25,7 +68,7 @@ public class RecordType extends Type {
         if (obj == null || getClass() != obj.getClass())
             return false;
         RecordType other = (RecordType) obj;
-        if (fields.size() != other.fields.size())
+        if (hash != other.hash || fields.size() != other.fields.size())
             return false;
         for (int i = 0; i < fields.size(); i++)
             if (!fields.get(i).equals(other.fields.get(i)))